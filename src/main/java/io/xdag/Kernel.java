@@ -56,7 +56,6 @@ import io.xdag.net.XdagServer;
 import io.xdag.net.XdagVersion;
 import io.xdag.net.manager.NetDBManager;
 import io.xdag.net.manager.XdagChannelManager;
-import io.xdag.net.message.MessageQueue;
 import io.xdag.net.message.NetDB;
 import io.xdag.net.message.NetStatus;
 import io.xdag.net.node.NodeManager;
@@ -152,6 +151,7 @@ public class Kernel {
         }
 
         dbFactory = new RocksdbFactory(config);
+        dbFactory.recover();
         blockStore = new BlockStore(
                 dbFactory.getDB(DatabaseName.INDEX),
                 dbFactory.getDB(DatabaseName.BLOCK),
@@ -259,9 +259,6 @@ public class Kernel {
         channelMgr.stop();
         nodeMgr.stop();
 
-        // close timer
-        MessageQueue.timer.shutdown();
-
         // close server
         p2p.close();
         // close client
@@ -270,9 +267,7 @@ public class Kernel {
         ReentrantReadWriteLock.WriteLock lock = chain.getStateLock().writeLock();
         lock.lock();
         try {
-            for (DatabaseName name : DatabaseName.values()) {
-                dbFactory.getDB(name).close();
-            }
+            dbFactory.close();
             // close save sums
             blockStore.closeSum();
         } finally {
@@ -429,6 +424,10 @@ public class Kernel {
         this.syncMgr = syncMgr;
     }
 
+    public XdagSync getSync() {
+        return sync;
+    }
+
     /**
      * Returns NodeManager
      *
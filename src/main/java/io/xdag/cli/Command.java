@@ -44,9 +44,12 @@ import java.util.Date;
 import java.util.List;
 import java.util.Map;
 import java.util.Scanner;
+import java.util.TreeMap;
 
 import org.spongycastle.util.encoders.Hex;
 
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+
 import io.xdag.Kernel;
 import io.xdag.core.Address;
 import io.xdag.core.Block;
@@ -109,13 +112,12 @@ public class Command {
             if (num == 0) {
                 break;
             }
-            str.append(hash2Address(kernel.getBlockchain().getBlockByHash(tmp, false).getHash()))
+            str.append(hash2Address(tmp))
                     .append(" ")
-                    .append(
-                            df.format(amount2xdag(kernel.getBlockchain().getBlockByHash(tmp, false).getAmount())))
+                    .append(df.format(amount2xdag(kernel.getAccountStore().getAccountAmount(tmp))))
                     .append("xdag")
                     .append(" key ")
-                    .append(kernel.getBlockStore().getBlockKeyIndex(tmp))
+                    .append(kernel.getAccountStore().getAccountKeyIndex(tmp))
                     .append("\n");
             num--;
         }
@@ -127,17 +129,35 @@ public class Command {
      *
      * @param address
      *            for search balance
-     * @return balance of give address
+     * @return balance of give address, or the total balance followed by the balance of each wallet key
      */
     public String balance(byte[] address) {
         if (address != null) {
             byte[] key = new byte[32];
             System.arraycopy(address, 8, key, 8, 24);
-            Block block = kernel.getBlockStore().getBlockInfoByHash(key);
-            double xdag = amount2xdag(block.getAmount());
+            // 我们的地址直接读取余额快照
+            long amount = kernel.getAccountStore().getAccountAmount(key);
+            if (amount < 0) {
+                amount = kernel.getBlockStore().getBlockInfoByHash(key).getAmount();
+            }
+            double xdag = amount2xdag(amount);
             return df.format(xdag);
         } else {
-            return df.format(amount2xdag(kernel.getAccountStore().getGBalance())) + "xdag";
+            StringBuilder str = new StringBuilder();
+            str.append(df.format(amount2xdag(kernel.getAccountStore().getGBalance()))).append("xdag");
+            // 每个钱包密钥下所有地址的余额
+            Map<Integer, Long> keyBalances = new TreeMap<>(kernel.getAccountStore().getKeyBalances());
+            for (Map.Entry<Integer, Long> entry : keyBalances.entrySet()) {
+                if (entry.getValue() != 0) {
+                    str.append("\n")
+                            .append("key ")
+                            .append(entry.getKey())
+                            .append(" ")
+                            .append(df.format(amount2xdag(entry.getValue())))
+                            .append("xdag");
+                }
+            }
+            return str.toString();
         }
     }
 
@@ -275,10 +295,39 @@ public class Command {
                 + "\n"
                 + "XDAG supply:"
                 + kernel.getBlockchain().getMainBlockSize() * 1024
+                + "\n"
+                + "sums queue:"
+                + kernel.getBlockStore().getSumsQueueSize()
+                + " flushes:"
+                + kernel.getBlockStore().getSumsFlushCount()
+                + " avg "
+                + df.format(kernel.getBlockStore().getSumsAvgFlushNanos() / 1e6)
+                + "ms max "
+                + df.format(kernel.getBlockStore().getSumsMaxFlushNanos() / 1e6)
+                + "ms"
+                + "\n"
+                + "block info cache:"
+                + formatCacheStats(kernel.getBlockStore().getBlockInfoCacheStats())
+                + "\n"
+                + "raw block cache:"
+                + formatCacheStats(kernel.getBlockStore().getRawBlockCacheStats())
+                + "\n"
+                + "task sent spread:"
+                + (kernel.getMinerManager() == null ? "-" : kernel.getMinerManager().getTaskSendStats())
+                + "\n"
+                + "shares:"
+                + (kernel.getPow() == null ? "-" : kernel.getPow().getShareValidator())
                 + "\n";
         return stringBuilder;
     }
 
+    private String formatCacheStats(CacheStats stats) {
+        return "hit " + stats.hitCount()
+                + " miss " + stats.missCount()
+                + " (" + df.format(stats.hitRate() * 100) + "%)"
+                + " evict " + stats.evictionCount();
+    }
+
     /**
      * Connect to Node
      */
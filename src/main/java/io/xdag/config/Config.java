@@ -84,6 +84,8 @@ public class Config {
     private String netDBDir;
     /** 存储相关 */
     private boolean storeFromBackup = false;
+    /** sums使用内存映射文件存储 */
+    private boolean storeSumsMapped = false;
     /** 用于测试加载已有区块数据 从C版本生成的数据 请将所需要的数据放在该目录下 */
     private String originStoreDir = "./testdate";
     private int TTL = 5;
@@ -231,5 +233,8 @@ public class Config {
         globalMinerChannelLimit = setting.getInt("globalMinerChannelLimit");
         maxConnectPerIp = setting.getInt("maxConnectPerIp");
         maxMinerPerAccount = setting.getInt("maxMinerPerAccount");
+
+        // sums的存储方式
+        storeSumsMapped = setting.getBool("storeSumsMapped", false);
     }
 }
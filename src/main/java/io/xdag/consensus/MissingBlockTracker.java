@@ -0,0 +1,135 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2030 The XdagJ Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.xdag.consensus;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.spongycastle.util.encoders.Hex;
+
+import io.xdag.utils.ByteArrayWrapper;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * 缺失区块的请求记录: 每个缺失的hash同一时间只向一个节点请求, 超时后换一个没请求过的节点. 节点按引用比较
+ */
+@Slf4j
+public class MissingBlockTracker<P> {
+    /** 最多向几个节点请求 之后放弃 等区块通过同步到达 */
+    public static final int MAX_ATTEMPTS = 4;
+
+    private final long timeout;
+    private final Map<ByteArrayWrapper, Request<P>> inFlight = new HashMap<>();
+    private int rotate;
+
+    public MissingBlockTracker(long timeout) {
+        this.timeout = timeout;
+    }
+
+    /**
+     * 记录一个缺失区块的请求
+     *
+     * @param preferred
+     *            优先请求的节点 一般是发来子区块的节点
+     * @return 需要发送请求的节点 已在请求中或没有节点时返回null
+     */
+    public synchronized P request(ByteArrayWrapper hash, P preferred, List<P> peers, long now) {
+        if (inFlight.containsKey(hash)) {
+            return null;
+        }
+        Request<P> request = new Request<>();
+        P peer = choosePeer(peers, preferred, request.tried);
+        if (peer == null) {
+            return null;
+        }
+        request.assign(peer, now + timeout);
+        inFlight.put(hash, request);
+        return peer;
+    }
+
+    /** 缺失的区块已到达 */
+    public synchronized boolean received(ByteArrayWrapper hash) {
+        return inFlight.remove(hash) != null;
+    }
+
+    /** 超时的请求换一个节点, 返回需要重新发送的<hash, 节点> */
+    public synchronized Map<ByteArrayWrapper, P> expire(List<P> peers, long now) {
+        Map<ByteArrayWrapper, P> result = new HashMap<>();
+        Iterator<Map.Entry<ByteArrayWrapper, Request<P>>> it = inFlight.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<ByteArrayWrapper, Request<P>> entry = it.next();
+            Request<P> request = entry.getValue();
+            if (request.deadline > now) {
+                continue;
+            }
+            P peer = request.tried.size() < MAX_ATTEMPTS ? choosePeer(peers, null, request.tried) : null;
+            if (peer == null) {
+                log.debug("Give up requesting block {}", Hex.toHexString(entry.getKey().getData()));
+                it.remove();
+                continue;
+            }
+            request.assign(peer, now + timeout);
+            result.put(entry.getKey(), peer);
+        }
+        return result;
+    }
+
+    private P choosePeer(List<P> peers, P preferred, Set<P> tried) {
+        List<P> candidates = new ArrayList<>(peers.size());
+        for (P peer : peers) {
+            if (tried.contains(peer)) {
+                continue;
+            }
+            if (peer == preferred) {
+                return peer;
+            }
+            candidates.add(peer);
+        }
+        if (candidates.isEmpty()) {
+            return null;
+        }
+        rotate = (rotate + 1) % candidates.size();
+        return candidates.get(rotate);
+    }
+
+    public synchronized int size() {
+        return inFlight.size();
+    }
+
+    private static class Request<P> {
+        private final Set<P> tried = Collections.newSetFromMap(new IdentityHashMap<>());
+        private long deadline;
+
+        void assign(P peer, long deadline) {
+            tried.add(peer);
+            this.deadline = deadline;
+        }
+    }
+}
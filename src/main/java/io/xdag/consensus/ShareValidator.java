@@ -0,0 +1,111 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2030 The XdagJ Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.xdag.consensus;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * 矿工share的并行计算: 按key(矿工)固定分到一个工作线程 同一个矿工的统计仍然串行更新. 每个线程的队列有界 满了直接丢弃并计数
+ */
+@Slf4j
+public class ShareValidator {
+    private final ThreadPoolExecutor[] workers;
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong maxQueued = new AtomicLong();
+
+    public ShareValidator(int threads, int queueCapacity) {
+        workers = new ThreadPoolExecutor[threads];
+        int perWorker = Math.max(1, queueCapacity / threads);
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(perWorker),
+                    new BasicThreadFactory.Builder().namingPattern("share-" + i).daemon(true).build());
+        }
+    }
+
+    /** 提交一个share 队列满时丢弃返回false */
+    public boolean submit(Object key, Runnable task) {
+        ThreadPoolExecutor worker = workers[(System.identityHashCode(key) & 0x7fffffff) % workers.length];
+        try {
+            worker.execute(() -> {
+                try {
+                    task.run();
+                } catch (Exception e) {
+                    log.warn("share validation failed", e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            dropped.incrementAndGet();
+            return false;
+        }
+        accepted.incrementAndGet();
+        maxQueued.accumulateAndGet(worker.getQueue().size(), Math::max);
+        return true;
+    }
+
+    public long getAccepted() {
+        return accepted.get();
+    }
+
+    /** 因队列满而丢弃的share数 */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /** 单个工作线程队列出现过的最大长度 */
+    public long getMaxQueued() {
+        return maxQueued.get();
+    }
+
+    public int getQueued() {
+        int size = 0;
+        for (ThreadPoolExecutor worker : workers) {
+            size += worker.getQueue().size();
+        }
+        return size;
+    }
+
+    public void shutdown() {
+        for (ThreadPoolExecutor worker : workers) {
+            worker.shutdownNow();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "accepted " + getAccepted()
+                + " dropped " + getDropped()
+                + " queued " + getQueued()
+                + " max queued " + getMaxQueued();
+    }
+}
@@ -36,9 +36,13 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
@@ -54,12 +58,15 @@ import io.xdag.core.ImportResult;
 import io.xdag.core.XdagState;
 import io.xdag.net.XdagChannel;
 import io.xdag.net.manager.XdagChannelManager;
+import io.xdag.net.node.Node;
 import io.xdag.utils.ByteArrayWrapper;
 import io.xdag.utils.ExecutorPipeline;
 import lombok.extern.slf4j.Slf4j;
 
 @Slf4j
 public class SyncManager {
+    /** 缺失区块请求超时 毫秒 */
+    private static final long MISSING_BLOCK_TIMEOUT = 8000;
 
     private Kernel kernel;
     private Blockchain blockchain;
@@ -69,6 +76,9 @@ public class SyncManager {
     private boolean syncDone = false;
     private XdagChannelManager channelMgr;
     private Thread syncQueueThread;
+    private final MissingBlockTracker<XdagChannel> missingBlocks = new MissingBlockTracker<>(MISSING_BLOCK_TIMEOUT);
+    private final ScheduledExecutorService missingBlockTimer = new ScheduledThreadPoolExecutor(1,
+            r -> new Thread(r, "MissingBlockTimer"));
 
     private ExecutorPipeline<BlockWrapper, BlockWrapper> exec1 = new ExecutorPipeline<>(
             4,
@@ -76,6 +86,8 @@ public class SyncManager {
             true,
             blockWrapper -> {
                 blockWrapper.getBlock().parse();
+                // 签名验证在这里并行完成 连接时只检查结果
+                blockchain.verifyBlock(blockWrapper);
                 return blockWrapper;
             },
             throwable -> log.error("Unexpected exception: ", throwable));
@@ -109,6 +121,7 @@ public class SyncManager {
 
         syncQueueThread = new Thread(this::produceQueue, "SyncThread");
         syncQueueThread.start();
+        missingBlockTimer.scheduleWithFixedDelay(this::retryMissingBlocks, 1, 1, TimeUnit.SECONDS);
     }
 
     /** Processing the queue adding blocks to the chain. */
@@ -133,21 +146,14 @@ public class SyncManager {
                 }
 
                 long s = System.nanoTime();
-                long sl;
-                ImportResult importResult;
-
-                synchronized (blockchain) {
-                    sl = System.nanoTime();
-                    importResult = blockchain.tryToConnect(blockWrapper.getBlock());
-                }
+                // 导入在区块链的导入线程上串行执行
+                ImportResult importResult = blockchain.tryToConnect(blockWrapper);
 
                 log.debug("impore result:" + String.valueOf(importResult));
 
                 long f = System.nanoTime();
                 long t = (f - s) / 1_000_000;
                 String ts = timeFormat.format(t / 1000d) + "s";
-                t = (sl - s) / 1_000_000;
-                ts += t < 10 ? "" : " (lock: " + timeFormat.format(t / 1000d) + "s)";
 
                 if (importResult == IMPORTED_BEST || importResult == IMPORTED_NOT_BEST) {
                     syncPopBlock(blockWrapper);
@@ -198,16 +204,14 @@ public class SyncManager {
                 }
 
                 if (importResult == NO_PARENT) {
+                    byte[] parent = importResult.getHashLow();
                     log.debug(
-                            "No parent on the chain for block.hash: {}",
+                            "No parent {} on the chain for block.hash: {}",
+                            Hex.toHexString(parent),
                             Hex.toHexString(blockWrapper.getBlock().getHash()));
-                    // TODO:添加进sync队列 后续请求区块
-                    syncPushBlock(blockWrapper, importResult.getHashLow());
-                    // TODO:向谁请求
-                    List<XdagChannel> channels = channelMgr.getActiveChannels();
-                    for (XdagChannel channel : channels) {
-                        channel.getXdag().sendGetblock(blockWrapper.getBlock().getHash());
-                    }
+                    // 等parent到达后重新导入
+                    syncPushBlock(blockWrapper, parent);
+                    requestMissingBlock(parent, blockWrapper.getRemoteNode());
                 }
                 if (importResult == EXIST) {
                     log.debug("Block have exist:" + Hex.toHexString(blockWrapper.getBlock().getHash()));
@@ -291,12 +295,45 @@ public class SyncManager {
         log.debug("A block as parent connect:" + Hex.toHexString(block.getHashLow()));
         ByteArrayWrapper key = new ByteArrayWrapper(block.getHashLow());
         // 把所有block为parent的区块重新进行添加
-        List<BlockWrapper> list = waitingblockQueue.get(key);
+        List<BlockWrapper> list = waitingblockQueue.remove(key);
+        missingBlocks.received(key);
         if (list != null) {
             pushBlocks(list);
         }
     }
 
+    /** 缺失的区块只向一个节点请求 优先发来子区块的节点 */
+    private void requestMissingBlock(byte[] hashLow, Node remoteNode) {
+        List<XdagChannel> channels = channelMgr.getActiveChannels();
+        XdagChannel preferred = null;
+        if (remoteNode != null) {
+            for (XdagChannel channel : channels) {
+                if (remoteNode.equals(channel.getNode())) {
+                    preferred = channel;
+                    break;
+                }
+            }
+        }
+        XdagChannel channel = missingBlocks.request(
+                new ByteArrayWrapper(hashLow), preferred, channels, System.currentTimeMillis());
+        if (channel != null) {
+            channel.getXdag().sendGetblock(hashLow);
+        }
+    }
+
+    /** 超时的缺失区块请求换节点重发 */
+    private void retryMissingBlocks() {
+        try {
+            Map<ByteArrayWrapper, XdagChannel> retries = missingBlocks.expire(
+                    channelMgr.getActiveChannels(), System.currentTimeMillis());
+            for (Map.Entry<ByteArrayWrapper, XdagChannel> entry : retries.entrySet()) {
+                entry.getValue().getXdag().sendGetblock(entry.getKey().getData());
+            }
+        } catch (Exception e) {
+            log.error("retry missing blocks error", e);
+        }
+    }
+
     public void makeSyncDone() {
         log.debug("Sync Done");
         if (syncDone) {
@@ -322,6 +359,7 @@ public class SyncManager {
         log.debug("sync manager stop");
         System.out.println("sync manager stop");
         // if(isRunning.compareAndSet(true,false)){
+        missingBlockTimer.shutdownNow();
         if (exec1 != null) {
             try {
                 exec1.shutdown();
@@ -0,0 +1,249 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2030 The XdagJ Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.xdag.consensus;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * 同步的时间范围调度: 待处理的范围按起始时间排序, 分给不同的节点并行请求, 记录进行中的范围, 超时或失败后换节点重试.
+ * 存活的范围互不重叠, 所以用起始时间作为key. 节点按引用比较
+ */
+@Slf4j
+public class SyncScheduler<P> {
+    /** 同一范围最多重试次数 超过后丢弃 等下一轮从头比较时重新发现 */
+    public static final int MAX_ATTEMPTS = 5;
+
+    private final int maxPerPeer;
+    private final long timeout;
+    private final TreeMap<Long, Range> pending = new TreeMap<>();
+    private final Map<Long, InFlight<P>> inFlight = new HashMap<>();
+    private final Map<P, Integer> load = new IdentityHashMap<>();
+    private long completed;
+    private int rotate;
+
+    public SyncScheduler(int maxPerPeer, long timeout) {
+        this.maxPerPeer = maxPerPeer;
+        this.timeout = timeout;
+    }
+
+    /** 加入一个待处理范围 */
+    public synchronized void add(Range range) {
+        pending.put(range.getStart(), range);
+    }
+
+    /** 把待处理范围按时间顺序分给负载最小的节点, 返回新分配的请求 */
+    public synchronized List<InFlight<P>> assign(List<P> peers, long now) {
+        List<InFlight<P>> result = new ArrayList<>();
+        if (peers.isEmpty()) {
+            return result;
+        }
+        rotate++;
+        Iterator<Range> it = pending.values().iterator();
+        while (it.hasNext()) {
+            Range range = it.next();
+            P peer = choosePeer(peers, range.getLastPeer());
+            if (peer == null) {
+                break;
+            }
+            it.remove();
+            InFlight<P> f = new InFlight<>(range, peer, now + timeout);
+            inFlight.put(range.getStart(), f);
+            load.merge(peer, 1, Integer::sum);
+            result.add(f);
+        }
+        return result;
+    }
+
+    /** 负载最小且未满的节点, 负载相同时轮换起点, 其他节点都满了才选上次失败的节点 */
+    private P choosePeer(List<P> peers, Object lastPeer) {
+        P best = null;
+        int bestLoad = maxPerPeer;
+        P last = null;
+        int n = peers.size();
+        for (int i = 0; i < n; i++) {
+            P peer = peers.get((rotate + i) % n);
+            int l = load.getOrDefault(peer, 0);
+            if (peer == lastPeer) {
+                last = l < maxPerPeer ? peer : null;
+            } else if (l < bestLoad) {
+                best = peer;
+                bestLoad = l;
+            }
+        }
+        return best != null ? best : last;
+    }
+
+    /** 请求完成, 不一致的子范围继续排队. 不是当前进行中的请求时返回false */
+    public synchronized boolean complete(long start, long end, P peer, Collection<Range> children) {
+        InFlight<P> f = take(start, end, peer);
+        if (f == null) {
+            return false;
+        }
+        completed++;
+        for (Range child : children) {
+            pending.put(child.getStart(), child);
+        }
+        return true;
+    }
+
+    /** 区块请求只有endtime, 按节点和endtime找到进行中的范围 */
+    public synchronized boolean completeByEnd(long end, P peer) {
+        for (InFlight<P> f : inFlight.values()) {
+            if (f.getRange().getEnd() == end && f.getPeer() == peer) {
+                take(f.getRange().getStart(), end, peer);
+                completed++;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** 请求失败, 放回队列换节点重试 */
+    public synchronized boolean fail(long start, long end, P peer) {
+        InFlight<P> f = take(start, end, peer);
+        if (f == null) {
+            return false;
+        }
+        retry(f);
+        return true;
+    }
+
+    /** 超时的请求放回队列, 返回超时的个数 */
+    public synchronized int expire(long now) {
+        List<InFlight<P>> expired = new ArrayList<>();
+        for (InFlight<P> f : inFlight.values()) {
+            if (f.getDeadline() <= now) {
+                expired.add(f);
+            }
+        }
+        for (InFlight<P> f : expired) {
+            take(f.getRange().getStart(), f.getRange().getEnd(), f.getPeer());
+            retry(f);
+        }
+        return expired.size();
+    }
+
+    /** 节点断开 它负责的范围放回队列 */
+    public synchronized void removePeer(P peer) {
+        List<InFlight<P>> owned = new ArrayList<>();
+        for (InFlight<P> f : inFlight.values()) {
+            if (f.getPeer() == peer) {
+                owned.add(f);
+            }
+        }
+        for (InFlight<P> f : owned) {
+            take(f.getRange().getStart(), f.getRange().getEnd(), peer);
+            pending.put(f.getRange().getStart(), f.getRange());
+        }
+        load.remove(peer);
+    }
+
+    private InFlight<P> take(long start, long end, P peer) {
+        InFlight<P> f = inFlight.get(start);
+        if (f == null || f.getRange().getEnd() != end || f.getPeer() != peer) {
+            return null;
+        }
+        inFlight.remove(start);
+        load.computeIfPresent(peer, (k, v) -> v > 1 ? v - 1 : null);
+        return f;
+    }
+
+    private void retry(InFlight<P> f) {
+        Range range = f.getRange();
+        if (range.getAttempts() + 1 >= MAX_ATTEMPTS) {
+            log.debug("Drop sync range [{}, {}) after {} attempts", range.getStart(), range.getEnd(), MAX_ATTEMPTS);
+            return;
+        }
+        pending.put(range.getStart(), new Range(range.getStart(), range.getEnd(), range.getAttempts() + 1, f.getPeer()));
+    }
+
+    public synchronized boolean isIdle() {
+        return pending.isEmpty() && inFlight.isEmpty();
+    }
+
+    /** 待处理和进行中的所有范围, 用于重启后继续同步 */
+    public synchronized List<Range> frontier() {
+        TreeMap<Long, Range> all = new TreeMap<>(pending);
+        for (InFlight<P> f : inFlight.values()) {
+            all.put(f.getRange().getStart(), f.getRange());
+        }
+        return new ArrayList<>(all.values());
+    }
+
+    public synchronized int getPendingSize() {
+        return pending.size();
+    }
+
+    public synchronized int getInFlightSize() {
+        return inFlight.size();
+    }
+
+    public synchronized long getCompleted() {
+        return completed;
+    }
+
+    /** 时间范围[start, end) */
+    @Getter
+    public static class Range {
+        private final long start;
+        private final long end;
+        private final int attempts;
+        private final Object lastPeer;
+
+        public Range(long start, long end) {
+            this(start, end, 0, null);
+        }
+
+        Range(long start, long end, int attempts, Object lastPeer) {
+            this.start = start;
+            this.end = end;
+            this.attempts = attempts;
+            this.lastPeer = lastPeer;
+        }
+    }
+
+    /** 分给某个节点的请求 */
+    @Getter
+    public static class InFlight<P> {
+        private final Range range;
+        private final P peer;
+        private final long deadline;
+
+        InFlight(Range range, P peer, long deadline) {
+            this.range = range;
+            this.peer = peer;
+            this.deadline = deadline;
+        }
+    }
+}
@@ -55,6 +55,11 @@ import lombok.extern.slf4j.Slf4j;
 
 @Slf4j
 public class XdagPow implements PoW {
+    /** share计算线程数 */
+    private static final int SHARE_THREADS = Math.max(2, Runtime.getRuntime().availableProcessors());
+    /** 所有share计算线程队列的总容量 */
+    private static final int SHARE_QUEUE_SIZE = 1 << 16;
+
     /** 事件队列 */
     protected BlockingQueue<Event> events = new LinkedBlockingQueue<>();
     protected Status status;
@@ -62,9 +67,13 @@ public class XdagPow implements PoW {
     protected Broadcaster broadcaster;
     protected Block generateBlock;
     protected byte[] minShare;
-    protected byte[] minHash;
+    /** 只在consensus线程修改 share计算线程读取用于预先过滤 */
+    protected volatile byte[] minHash;
     protected Task currentTask;
     protected XdagSha256Digest currentTaskDigest;
+    /** 当前任务和对应的digest 发布后不再修改 供share计算线程复制 */
+    protected volatile TaskSnapshot taskSnapshot;
+    protected ShareValidator shareValidator = new ShareValidator(SHARE_THREADS, SHARE_QUEUE_SIZE);
     protected long sendTime;
     protected XdagChannelManager channelMgr;
     protected Blockchain blockchain;
@@ -130,6 +139,7 @@ public class XdagPow implements PoW {
 
             timer.stop();
             broadcaster.stop();
+            shareValidator.shutdown();
 
             status = Status.STOPPED;
             Event ev = new Event(Event.Type.STOP);
@@ -197,17 +207,22 @@ public class XdagPow implements PoW {
         return status == Status.RUNNING;
     }
 
-    /** 每收到一个miner的信息 之后都会在这里进行一次计算 */
+    /** 每收到一个miner的信息 交给share计算线程 按收到时的任务计算 */
     @Override
     public void receiveNewShare(MinerChannel channel, Message msg) {
         log.debug("Receive share From PoolChannel");
-        if (!isRunning()) {
+        TaskSnapshot snapshot = taskSnapshot;
+        if (!isRunning() || snapshot == null) {
             return;
         }
 
         XdagField shareInfo = new XdagField(msg.getEncoded());
         log.debug("shareinfo:" + Hex.toHexString(shareInfo.getData()));
-        events.add(new Event(Event.Type.NEW_SHARE, shareInfo, channel));
+        // 同一个矿工的统计在同一个线程上更新
+        Object key = channel.getMiner() != null ? channel.getMiner() : channel;
+        if (!shareValidator.submit(key, () -> onNewShare(shareInfo, channel, snapshot))) {
+            log.debug("share queue full, drop share from {}", channel.getInetAddress());
+        }
     }
 
     @Override
@@ -233,7 +248,7 @@ public class XdagPow implements PoW {
                 case STOP:
                     return;
                 case NEW_SHARE:
-                    onNewShare(ev.getData(), ev.getChannel());
+                    onNewMinShare(ev.getData());
                     break;
                 case TIMEOUT:
                     onTimeout();
@@ -255,41 +270,50 @@ public class XdagPow implements PoW {
         }
     }
 
-    protected void onNewShare(XdagField shareInfo, MinerChannel channel) {
-        XdagField share = shareInfo;
+    /** 在share计算线程上执行: 计算hash 更新矿工统计 可能是新的最小hash时交给consensus线程 */
+    protected void onNewShare(XdagField shareInfo, MinerChannel channel, TaskSnapshot snapshot) {
         try {
-            XdagSha256Digest digest = new XdagSha256Digest(currentTaskDigest);
-            byte[] hash = digest.sha256Final(reverse(share.getData()));
+            byte[] share = reverse(shareInfo.getData());
+            XdagSha256Digest digest = new XdagSha256Digest(snapshot.digest);
+            byte[] hash = digest.sha256Final(share);
 
-            MinerCalculate.updateMeanLogDiff(channel, currentTask, hash);
-            MinerCalculate.calculateNopaidShares(channel, hash, currentTask.getTaskTime());
+            MinerCalculate.updateMeanLogDiff(channel, snapshot.task, hash);
+            MinerCalculate.calculateNopaidShares(channel, hash, snapshot.task.getTaskTime());
 
             if (compareTo(hash, 0, 32, minHash, 0, 32) < 0) {
-                minHash = hash;
-                minShare = reverse(share.getData());
-                byte[] hashlow = new byte[32];
-                System.arraycopy(minHash, 8, hashlow, 8, 24);
-                generateBlock.setNonce(minShare);
-                generateBlock.setHash(minHash);
-                generateBlock.setHashLow(hashlow);
-
-                // 把计算出来的最后的结果放到nonce里面
-                int index = (int) ((currentTask.getTaskTime() >> 16) & 0xf);
-                // int index = (int) ((currentTask.getTaskTime() >> 16) & 7);
-                minShares.set(index, minShare);
-                blockHashs.set(index, minHash);
-
-                log.debug("New MinHash :" + Hex.toHexString(minHash));
-                log.debug("New MinShare :" + Hex.toHexString(minShare));
-                log.debug("区块放入的对应的hash 为【{}】", Hex.toHexString(generateBlock.getHash()));
-                log.debug("区块放入的对应的hash 为【{}】", Hex.toHexString(generateBlock.getHashLow()));
-                log.debug("对应的区块【{}】", Hex.toHexString(generateBlock.toBytes()));
+                events.add(new Event(Event.Type.NEW_SHARE, new MinShare(snapshot.task, share, hash)));
             }
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
+    /** 在consensus线程上比较最小hash 更新区块的nonce */
+    protected void onNewMinShare(MinShare share) {
+        byte[] hash = share.hash;
+        if (share.task == currentTask && compareTo(hash, 0, 32, minHash, 0, 32) < 0) {
+            minHash = hash;
+            minShare = share.share;
+            byte[] hashlow = new byte[32];
+            System.arraycopy(minHash, 8, hashlow, 8, 24);
+            generateBlock.setNonce(minShare);
+            generateBlock.setHash(minHash);
+            generateBlock.setHashLow(hashlow);
+
+            // 把计算出来的最后的结果放到nonce里面
+            int index = (int) ((currentTask.getTaskTime() >> 16) & 0xf);
+            // int index = (int) ((currentTask.getTaskTime() >> 16) & 7);
+            minShares.set(index, minShare);
+            blockHashs.set(index, minHash);
+
+            log.debug("New MinHash :" + Hex.toHexString(minHash));
+            log.debug("New MinShare :" + Hex.toHexString(minShare));
+            log.debug("区块放入的对应的hash 为【{}】", Hex.toHexString(generateBlock.getHash()));
+            log.debug("区块放入的对应的hash 为【{}】", Hex.toHexString(generateBlock.getHashLow()));
+            log.debug("对应的区块【{}】", Hex.toHexString(generateBlock.toBytes()));
+        }
+    }
+
     protected void onTimeout() {
         log.info("Broadcast locally generated blockchain, waiting to be verified. block hash = [{}]",
                 Hex.toHexString(generateBlock.getHash()));
@@ -299,9 +323,7 @@ public class XdagPow implements PoW {
         log.debug("发送区块:" + Hex.toHexString(generateBlock.toBytes()));
         log.debug("发送区块hash:" + Hex.toHexString(generateBlock.getHashLow()));
         log.debug("发送区块hash:" + Hex.toHexString(generateBlock.getHash()));
-        synchronized (kernel.getBlockchain()) {
-            kernel.getBlockchain().tryToConnect(new Block(new XdagBlock(generateBlock.toBytes())));
-        }
+        kernel.getBlockchain().tryToConnect(new Block(new XdagBlock(generateBlock.toBytes())));
         awardManager.payAndaddNewAwardBlock(minShare.clone(), generateBlock.getHash().clone(),
                 generateBlock.getTimestamp());
 
@@ -333,9 +355,14 @@ public class XdagPow implements PoW {
         newTask.setTask(task);
         newTask.setTaskTime(XdagTime.getMainTime());
         newTask.setTaskIndex(taskIndex++);
+        taskSnapshot = new TaskSnapshot(newTask, currentTaskDigest);
         return newTask;
     }
 
+    public ShareValidator getShareValidator() {
+        return shareValidator;
+    }
+
     public void onStart() {
         consThread.start();
     }
@@ -345,6 +372,30 @@ public class XdagPow implements PoW {
         STOPPED, RUNNING, SYNCING, BLOCK_PRODUCTION_ON
     }
 
+    /** 任务和计算到nonce之前的digest 发布后不再修改 */
+    protected static class TaskSnapshot {
+        final Task task;
+        final XdagSha256Digest digest;
+
+        TaskSnapshot(Task task, XdagSha256Digest digest) {
+            this.task = task;
+            this.digest = digest;
+        }
+    }
+
+    /** share计算线程找到的可能更小的hash */
+    protected static class MinShare {
+        final Task task;
+        final byte[] share;
+        final byte[] hash;
+
+        MinShare(Task task, byte[] share, byte[] hash) {
+            this.task = task;
+            this.share = share;
+            this.hash = hash;
+        }
+    }
+
     public static class Event {
         private final Type type;
         private final Object data;
@@ -389,7 +440,7 @@ public class XdagPow implements PoW {
             STOP,
             /** Received a timeout signal. */
             TIMEOUT,
-            /** Received a new share message. */
+            /** A share whose hash may be the new minimum. */
             NEW_SHARE,
             /** Received a new pretop message. */
             NEW_PRETOP,
@@ -23,9 +23,23 @@
  */
 package io.xdag.consensus;
 
+import static io.xdag.config.Constants.REQUEST_BLOCKS_MAX_TIME;
 import static io.xdag.utils.FastByteComparisons.compareTo;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
@@ -43,7 +57,9 @@ import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.MoreExecutors;
 
 import io.xdag.Kernel;
-import io.xdag.db.SimpleFileStore;
+import io.xdag.consensus.SyncScheduler.InFlight;
+import io.xdag.consensus.SyncScheduler.Range;
+import io.xdag.db.FileSource;
 import io.xdag.net.XdagChannel;
 import io.xdag.net.manager.XdagChannelManager;
 import io.xdag.net.message.impl.SumReplyMessage;
@@ -51,6 +67,16 @@ import lombok.extern.slf4j.Slf4j;
 
 @Slf4j
 public class XdagSync {
+    /** 每个节点同时进行的请求数 */
+    private static final int MAX_REQUESTS_PER_PEER = 8;
+    /** 请求超时 毫秒 */
+    private static final long REQUEST_TIMEOUT = 32000;
+    /** 一轮同步结束后 隔多久重新比较整个时间范围 毫秒 */
+    private static final long ROUND_INTERVAL = 64000;
+    /** 每隔多少次调度保存一次未完成的范围 */
+    private static final int SAVE_INTERVAL = 16;
+    private static final String FRONTIER_FILE = "sync.dat";
+
     private static final ThreadFactory factory = new ThreadFactory() {
         private final AtomicInteger cnt = new AtomicInteger(0);
 
@@ -60,51 +86,91 @@ public class XdagSync {
         }
     };
     private XdagChannelManager channelMgr;
-    private SimpleFileStore simpleFileStore;
+    private FileSource fileSource;
     private Status status;
     private ScheduledExecutorService sendTask;
     private ScheduledFuture<?> sendFuture;
     private volatile boolean isRunning;
+    private final SyncScheduler<XdagChannel> scheduler = new SyncScheduler<>(MAX_REQUESTS_PER_PEER, REQUEST_TIMEOUT);
+    /** 未完成的范围保存在这里 重启后继续 */
+    private final Path frontierFile;
+    /** 以下只在调度线程中使用. XdagChannel的equals比较全部字段 这里按引用比较 */
+    private Set<XdagChannel> channels = Collections.newSetFromMap(new IdentityHashMap<>());
+    private long lastRound;
+    private int ticks;
 
     public XdagSync(Kernel kernel) {
         this.channelMgr = kernel.getChannelManager();
-        this.simpleFileStore = kernel.getBlockStore().getSimpleFileStore();
+        this.fileSource = kernel.getBlockStore().getFileSource();
+        String storeDir = kernel.getConfig() == null ? null : kernel.getConfig().getStoreDir();
+        this.frontierFile = storeDir == null ? null : Paths.get(storeDir, FRONTIER_FILE);
         sendTask = new ScheduledThreadPoolExecutor(1, factory);
     }
 
-    /** 不断发送send request */
+    /** 每秒调度一次: 超时重试 分配待处理的范围 */
     public void start() {
         if (status != Status.SYNCING) {
             isRunning = true;
             status = Status.SYNCING;
-            sendFuture = sendTask.scheduleAtFixedRate(this::syncLoop, 64, 64, TimeUnit.SECONDS);
+            loadFrontier();
+            sendFuture = sendTask.scheduleWithFixedDelay(this::syncLoop, 1, 1, TimeUnit.SECONDS);
         }
     }
 
     private void syncLoop() {
-        log.debug("Synchronization");
-        requesetBlocks(0, 1L << 48);
+        try {
+            long now = System.currentTimeMillis();
+            List<XdagChannel> any = getAnyNode();
+            // 已断开节点的请求重新排队
+            Set<XdagChannel> active = Collections.newSetFromMap(new IdentityHashMap<>());
+            active.addAll(any);
+            for (XdagChannel channel : channels) {
+                if (!active.contains(channel)) {
+                    scheduler.removePeer(channel);
+                }
+            }
+            channels = active;
+            int expired = scheduler.expire(now);
+            if (expired > 0) {
+                log.debug("{} sync requests timed out", expired);
+            }
+            if (scheduler.isIdle() && now - lastRound >= ROUND_INTERVAL) {
+                log.debug("Synchronization");
+                lastRound = now;
+                scheduler.add(new Range(0, 1L << 48));
+            }
+            for (InFlight<XdagChannel> request : scheduler.assign(any, now)) {
+                request(request);
+            }
+            if (++ticks % SAVE_INTERVAL == 0) {
+                saveFrontier();
+            }
+        } catch (Exception e) {
+            log.error("sync loop error", e);
+        }
     }
 
-    private void requesetBlocks(long start, long timeInterval) {
-        // 如果当前状态不是sync start
-        if (status != Status.SYNCING) {
+    /** 小范围直接请求区块 否则请求sums */
+    private void request(InFlight<XdagChannel> request) {
+        XdagChannel channel = request.getPeer();
+        long start = request.getRange().getStart();
+        long end = request.getRange().getEnd();
+        log.debug("Send Request to channel [{}, {})", start, end);
+        if (end - start <= REQUEST_BLOCKS_MAX_TIME) {
+            channel.getXdag().sendGetblocks(start, end);
             return;
         }
-        List<XdagChannel> any = getAnyNode();
-        if (any != null && any.size() != 0) {
-            for (XdagChannel channel : any) {
-                log.debug("Send Request to channel");
-                ListenableFuture<SumReplyMessage> futureSum = channel.getXdag().sendGetsums(start,
-                        start + timeInterval);
-                if (futureSum != null) {
-                    Futures.addCallback(
-                            futureSum,
-                            new SumCallback(channel, start, start + timeInterval),
-                            MoreExecutors.directExecutor());
-                }
-            }
+        ListenableFuture<SumReplyMessage> futureSum = channel.getXdag().sendGetsums(start, end);
+        if (futureSum == null) {
+            scheduler.fail(start, end, channel);
+            return;
         }
+        Futures.addCallback(futureSum, new SumCallback(channel, start, end), MoreExecutors.directExecutor());
+    }
+
+    /** 区块请求的响应在所有区块发送之后到达 */
+    public void onBlocksReply(XdagChannel channel, long endtime) {
+        scheduler.completeByEnd(endtime, channel);
     }
 
     /**
@@ -119,29 +185,63 @@ public class XdagSync {
         log.debug("响应endtime " + reply.getEndtime() + "请求endtime " + endtime);
         if (endtime != reply.getEndtime()) {
             log.debug("此响应与请求不匹配" + Hex.toHexString(reply.getEncoded()));
+            scheduler.fail(starttime, endtime, channel);
             return;
         }
         long dt = endtime - starttime;
         // 如果请求时间区域过大
         dt >>= 4;
-        byte[] lsums = simpleFileStore.loadSum(starttime, endtime);
+        byte[] lsums = fileSource.loadSum(starttime, endtime);
         byte[] rsums = reply.getSum();
         log.debug("lsum is " + Hex.toHexString(lsums));
         log.debug("rsum is " + Hex.toHexString(rsums));
+        List<Range> children = new ArrayList<>();
         for (int i = 0; i < 16; i++) {
             if ((compareTo(lsums, i * 16, 8, rsums, i * 16, 8) != 0)
                     || (compareTo(lsums, i * 16 + 8, 8, rsums, i * 16 + 8, 8) != 0)) {
-                log.debug("第" + i + "次请求");
-                // 请求request
-                ListenableFuture<SumReplyMessage> future = channel.getXdag().sendGetsums(starttime + i * (dt),
-                        starttime + i * (dt) + dt);
-                if (future != null) {
-                    Futures.addCallback(
-                            future,
-                            new SumCallback(channel, starttime + i * (dt), starttime + i * (dt) + dt),
-                            MoreExecutors.directExecutor());
+                log.debug("第" + i + "个子范围不一致");
+                children.add(new Range(starttime + i * dt, starttime + i * dt + dt));
+            }
+        }
+        scheduler.complete(starttime, endtime, channel, children);
+    }
+
+    private void loadFrontier() {
+        if (frontierFile == null || !Files.exists(frontierFile)) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(frontierFile)))) {
+            int size = in.readInt();
+            for (int i = 0; i < size; i++) {
+                scheduler.add(new Range(in.readLong(), in.readLong()));
+            }
+            log.info("Resume sync with {} ranges", size);
+        } catch (IOException e) {
+            log.error("load sync ranges failed", e);
+        }
+    }
+
+    private void saveFrontier() {
+        if (frontierFile == null) {
+            return;
+        }
+        List<Range> ranges = scheduler.frontier();
+        try {
+            if (ranges.isEmpty()) {
+                Files.deleteIfExists(frontierFile);
+                return;
+            }
+            Path tmp = frontierFile.resolveSibling(FRONTIER_FILE + ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                out.writeInt(ranges.size());
+                for (Range range : ranges) {
+                    out.writeLong(range.getStart());
+                    out.writeLong(range.getEnd());
                 }
             }
+            Files.move(tmp, frontierFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.error("save sync ranges failed", e);
         }
     }
 
@@ -149,6 +249,10 @@ public class XdagSync {
         return channelMgr.getActiveChannels();
     }
 
+    public SyncScheduler<XdagChannel> getScheduler() {
+        return scheduler;
+    }
+
     public void stop() {
         log.debug("stop sync");
         if (isRunning) {
@@ -163,6 +267,7 @@ public class XdagSync {
             } catch (InterruptedException e) {
                 e.printStackTrace();
             }
+            saveFrontier();
             isRunning = false;
             log.debug("Sync Stop");
         }
@@ -196,6 +301,7 @@ public class XdagSync {
         @Override
         public void onFailure(@Nonnull Throwable t) {
             log.debug("{}: Error receiving Sums. Dropping the peer.", "Sync", t);
+            scheduler.fail(starttime, endtime, channel);
             channel.getXdag().dropConnection();
         }
     }
@@ -57,6 +57,16 @@ public class Address {
         parse();
     }
 
+    /** 直接从区块数据offset处的字段读取 */
+    Address(byte[] blockData, int offset, XdagField.FieldType type) {
+        this.type = type;
+        this.data = new byte[32];
+        for (int i = 0; i < 32; i++) {
+            data[i] = blockData[offset + 31 - i];
+        }
+        parse();
+    }
+
     /** 只用于ref 跟 maxdifflink */
     public Address(byte[] hashLow) {
         this.hashLow = hashLow;
@@ -37,18 +37,19 @@ import static io.xdag.utils.BytesUtils.bytesToBigInteger;
 import static io.xdag.utils.FastByteComparisons.equalBytes;
 
 import java.math.BigInteger;
+import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CopyOnWriteArrayList;
 
-import org.spongycastle.math.ec.ECPoint;
 import org.spongycastle.util.Arrays;
 import org.spongycastle.util.encoders.Hex;
 
 import io.xdag.crypto.ECKey;
 import io.xdag.crypto.Sha256Hash;
+import io.xdag.crypto.SignatureVerifier;
 import io.xdag.utils.ByteArrayWrapper;
 import io.xdag.utils.BytesUtils;
 import lombok.Getter;
@@ -59,6 +60,12 @@ import lombok.extern.slf4j.Slf4j;
 public class Block implements Cloneable {
 
     public static final int MAX_LINKS = 15;
+    /** 解析阶段 头部 links 签名 公钥 */
+    private static final int STAGE_HEADER = 1;
+    private static final int STAGE_LINKS = 1 << 1;
+    private static final int STAGE_SIGNATURES = 1 << 2;
+    private static final int STAGE_KEYS = 1 << 3;
+    private static final int STAGE_ALL = STAGE_HEADER | STAGE_LINKS | STAGE_SIGNATURES | STAGE_KEYS;
     /** 区块标志* */
     @Getter
     public int flags = 0;
@@ -93,6 +100,12 @@ public class Block implements Cloneable {
     @Getter
     @Setter
     private BigInteger difficulty;
+    /**
+     * maxdifflink链上第一个不在本区块epoch的区块 如果它在之前的epoch 为它的难度 否则为0. null表示未知(旧记录)
+     */
+    @Getter
+    @Setter
+    private BigInteger prevEpochDiff;
     /** 第一个输出 主块见证块第一个输出为pretop 其他块为自己的上一个地址块* */
     private Address firstOutput;
     /** 区块的links 列表 输入输出* */
@@ -124,8 +137,8 @@ public class Block implements Cloneable {
     @Setter
     private XdagBlock xdagBlock;
 
-    @Setter
-    private boolean parsed = false;
+    /** 已解析的阶段 */
+    private volatile int stages = 0;
     private long sum;
 
     private byte[] encoded;
@@ -140,7 +153,7 @@ public class Block implements Cloneable {
             boolean mining,
             List<ECKey> keys,
             int defKeyIndex) {
-        parsed = true;
+        stages = STAGE_ALL;
         this.timestamp = timestamp;
         this.fee = 0;
         this.firstOutput = pretop;
@@ -205,10 +218,9 @@ public class Block implements Cloneable {
         this(timestamp, new Address(pretop, XDAG_FIELD_OUT), null, pendings, mining, null, -1);
     }
 
-    /** 从512字节读取* */
+    /** 从512字节读取 各部分在使用时才解析* */
     public Block(XdagBlock xdagBlock) {
         this.xdagBlock = xdagBlock;
-        parse();
     }
 
     /** 从rocksdb读取* */
@@ -220,7 +232,7 @@ public class Block implements Cloneable {
             byte[] ref,
             byte[] maxdiffLink,
             int flags) {
-        parsed = true;
+        stages = STAGE_ALL;
         this.timestamp = timestamp;
         this.amount = amount;
         this.difficulty = diff;
@@ -245,65 +257,140 @@ public class Block implements Cloneable {
         return Arrays.reverse(Sha256Hash.hashTwice(xdagBlock.getData()));
     }
 
-    /** 解析512字节数据* */
-    public synchronized void parse() {
-        if (parsed) {
+    /** 解析512字节数据 所有阶段* */
+    public void parse() {
+        if (stages == STAGE_ALL) {
             return;
         }
-        setHash(calcHash());
-        byte[] header = xdagBlock.getField(0).getData();
-        this.fee = BytesUtils.bytesToLong(BytesUtils.subArray(header, 24, 8), 0, true); // 最后8个字节
-        this.timestamp = BytesUtils.bytesToLong(header, 16, true);
-        this.type = BytesUtils.bytesToLong(header, 8, true);
-        BigInteger r = BigInteger.ZERO;
-        BigInteger s = BigInteger.ZERO;
+        parseStage(STAGE_HEADER);
+        parseStage(STAGE_LINKS);
+        parseStage(STAGE_SIGNATURES);
+        parseStage(STAGE_KEYS);
+    }
 
-        int signatureflag = 0;
-        for (int i = 1; i < xdagBlock.getFields().length; i++) {
-            XdagField field = xdagBlock.getField(i);
-            XdagField.FieldType eachType = field.getType();
+    /** 只有区块的512字节时 各部分在第一次使用时解析 */
+    public synchronized void setParsed(boolean parsed) {
+        stages = parsed ? STAGE_ALL : 0;
+    }
+
+    /** 已解析的阶段只读取一次volatile 不加锁 */
+    private void parseStage(int stage) {
+        if ((stages & stage) != 0) {
+            return;
+        }
+        synchronized (this) {
+            if ((stages & stage) != 0) {
+                return;
+            }
+            // 没有原始数据时只有构造时的内容
+            if (xdagBlock != null) {
+                switch (stage) {
+                case STAGE_HEADER:
+                    parseHeader();
+                    break;
+                case STAGE_LINKS:
+                    parseLinks();
+                    break;
+                case STAGE_SIGNATURES:
+                    parseSignatures();
+                    break;
+                default:
+                    parseKeys();
+                    break;
+                }
+            }
+            stages |= stage;
+        }
+    }
+
+    /** 时间 手续费 字段类型 */
+    private void parseHeader() {
+        this.fee = xdagBlock.getLong(0, 24); // 最后8个字节
+        this.timestamp = xdagBlock.getLong(0, 16);
+        this.type = xdagBlock.getLong(0, 8);
+    }
+
+    /** 输入输出 字段直接从512字节中按偏移读取 */
+    private void parseLinks() {
+        byte[] data = xdagBlock.getData();
+        Address first = null;
+        List<Address> in = new ArrayList<>();
+        List<Address> out = new ArrayList<>();
+        for (int i = 1; i < XdagBlock.XDAG_BLOCK_FIELDS; i++) {
+            int offset = XdagBlock.fieldOffset(i);
+            XdagField.FieldType eachType = xdagBlock.getFieldType(i);
             if (eachType == XDAG_FIELD_OUT) {
                 if (i == 1) {
-                    firstOutput = new Address(field);
+                    first = new Address(data, offset, eachType);
                 } else {
-                    outputs.add(new Address(field));
+                    out.add(new Address(data, offset, eachType));
                 }
             } else if (eachType == XDAG_FIELD_IN) {
-                inputs.add(new Address(xdagBlock.getField(i)));
+                in.add(new Address(data, offset, eachType));
+            }
+        }
+        firstOutput = first;
+        inputs = new CopyOnWriteArrayList<>(in);
+        outputs = new CopyOnWriteArrayList<>(out);
+    }
 
-            } else if (eachType == XDAG_FIELD_SIGN_IN || eachType == XDAG_FIELD_SIGN_OUT) {
+    /** 输入输出签名以及nonce */
+    private void parseSignatures() {
+        byte[] data = xdagBlock.getData();
+        BigInteger r = BigInteger.ZERO;
+        BigInteger s = BigInteger.ZERO;
+        Map<ECKey.ECDSASignature, Integer> in = new LinkedHashMap<>();
+        ECKey.ECDSASignature out = null;
+        byte[] blockNonce = null;
+
+        int signatureflag = 0;
+        for (int i = 1; i < XdagBlock.XDAG_BLOCK_FIELDS; i++) {
+            int offset = XdagBlock.fieldOffset(i);
+            XdagField.FieldType eachType = xdagBlock.getFieldType(i);
+            if (eachType == XDAG_FIELD_SIGN_IN || eachType == XDAG_FIELD_SIGN_OUT) {
                 // 最后一个字段如果是signIn的类型则作为nonce
                 if (i == MAX_LINKS && eachType == XDAG_FIELD_SIGN_IN) {
-                    this.nonce = BytesUtils.bigIntegerToBytes(r, 32);
+                    blockNonce = BytesUtils.bigIntegerToBytes(r, 32);
                     continue;
                 }
                 if ((++signatureflag) % 2 == 0) {
-                    s = bytesToBigInteger(xdagBlock.getField(i).getData());
+                    s = bytesToBigInteger(BytesUtils.subArray(data, offset, 32));
                     ECKey.ECDSASignature tmp = new ECKey.ECDSASignature(r, s);
                     if (eachType == XDAG_FIELD_SIGN_IN) {
-                        insigs.put(tmp, i);
+                        in.put(tmp, i);
                     } else {
-                        outsig = tmp;
+                        out = tmp;
                     }
                     r = BigInteger.ZERO;
                     s = BigInteger.ZERO;
                 }
-                r = bytesToBigInteger(xdagBlock.getField(i).getData());
-            } else if (eachType == XDAG_FIELD_PUBLIC_KEY_0 || eachType == XDAG_FIELD_PUBLIC_KEY_1) {
-                byte[] key = xdagBlock.getField(i).getData();
+                r = bytesToBigInteger(BytesUtils.subArray(data, offset, 32));
+            }
+        }
+        insigs = in;
+        outsig = out;
+        if (blockNonce != null) {
+            nonce = blockNonce;
+        }
+    }
+
+    /** 公钥 需要解压EC点 只在验证签名时使用 */
+    private void parseKeys() {
+        byte[] data = xdagBlock.getData();
+        List<ECKey> keys = new ArrayList<>();
+        for (int i = 1; i < XdagBlock.XDAG_BLOCK_FIELDS; i++) {
+            XdagField.FieldType eachType = xdagBlock.getFieldType(i);
+            if (eachType == XDAG_FIELD_PUBLIC_KEY_0 || eachType == XDAG_FIELD_PUBLIC_KEY_1) {
+                byte[] key = BytesUtils.subArray(data, XdagBlock.fieldOffset(i), 32);
                 boolean yBit = eachType == XDAG_FIELD_PUBLIC_KEY_1;
-                ECPoint point = ECKey.decompressKey(bytesToBigInteger(key), yBit);
-                pubKeys.add(ECKey.fromPublicOnly(point));
-            } else if (eachType == XDAG_FIELD_NONCE) {
-                // do nothing
-            } else {
-                log.debug("no match information");
+                keys.add(SignatureVerifier.getPublicKey(key, yBit));
             }
         }
-        parsed = true;
+        pubKeys = new CopyOnWriteArrayList<>(keys);
     }
 
     public byte[] toBytes() {
+        parse();
         SimpleEncoder encoder = new SimpleEncoder();
         encoder.write(getEncodedBody());
 
@@ -363,6 +450,11 @@ public class Block implements Cloneable {
         return BytesUtils.merge(transport, type, time, fee);
     }
 
+    /** 是否已有512字节数据 getXdagBlock会为只有区块信息的对象重新编码 */
+    public boolean hasXdagBlock() {
+        return xdagBlock != null;
+    }
+
     public XdagBlock getXdagBlock() {
         if (xdagBlock != null) {
             return xdagBlock;
@@ -394,36 +486,34 @@ public class Block implements Cloneable {
     /** 只匹配输入签名 并返回有用的key */
     public List<ECKey> verifiedKeys() {
         List<ECKey> keys = getPubKeys();
-        List<ECKey> res = new ArrayList<>();
-        byte[] digest = null;
-        byte[] hash = null;
+        // 所有(签名, 公钥)组合互不相关 一起验证
+        List<SignatureVerifier.Check> checks = new ArrayList<>();
         for (ECKey.ECDSASignature sig : this.getInsigs().keySet()) {
-            digest = getSubRawData(this.getInsigs().get(sig) - 2);
+            MessageDigest digest = signatureDigest(this.getInsigs().get(sig) - 2);
             for (ECKey ecKey : keys) {
-                hash = Sha256Hash.hashTwice(BytesUtils.merge(digest, ecKey.getPubKeybyCompress()));
-                if (ecKey.verify(hash, sig)) {
-                    res.add(ecKey);
-                }
+                checks.add(new SignatureVerifier.Check(
+                        signatureHash(digest, ecKey.getPubKeybyCompress()), sig, ecKey));
             }
         }
-        digest = getSubRawData(getOutsigIndex() - 2);
+        MessageDigest digest = signatureDigest(getOutsigIndex() - 2);
         for (ECKey ecKey : keys) {
-            hash = Sha256Hash.hashTwice(BytesUtils.merge(digest, ecKey.getPubKeybyCompress()));
-            log.debug("验证的块的hash【{}】", Hex.toHexString(this.getHash()));
-            log.debug(Hex.toHexString(hash) + ":hash");
-            log.debug(outsig + ":outsig");
-            log.debug(ecKey + ":eckey");
-
-            if (ecKey.verify(hash, this.getOutsig())) {
-                res.add(ecKey);
+            checks.add(new SignatureVerifier.Check(
+                    signatureHash(digest, ecKey.getPubKeybyCompress()), getOutsig(), ecKey));
+        }
+        SignatureVerifier.verify(checks);
+        List<ECKey> res = new ArrayList<>();
+        for (SignatureVerifier.Check check : checks) {
+            if (check.isValid()) {
+                res.add(check.getKey());
             }
         }
+        log.debug("验证的块的hash【{}】 verified keys:{}", Hex.toHexString(this.getHash()), res.size());
         return res;
     }
 
     /** 取输出签名在字段的索引 */
     public int getOutsigIndex() {
-        parse();
+        parseStage(STAGE_HEADER);
         int i = 1;
         long temp = type;
         while ((temp & 0xf) != 5) {
@@ -449,32 +539,32 @@ public class Block implements Cloneable {
     }
 
     public List<Address> getOutputs() {
-        parse();
+        parseStage(STAGE_LINKS);
         return outputs;
     }
 
     public List<Address> getInputs() {
-        parse();
+        parseStage(STAGE_LINKS);
         return inputs;
     }
 
     public List<ECKey> getPubKeys() {
-        parse();
+        parseStage(STAGE_KEYS);
         return pubKeys;
     }
 
     public byte[] getNonce() {
-        parse();
+        parseStage(STAGE_SIGNATURES);
         return nonce;
     }
 
     public ECKey.ECDSASignature getOutsig() {
-        parse();
+        parseStage(STAGE_SIGNATURES);
         return outsig;
     }
 
     public Map<ECKey.ECDSASignature, Integer> getInsigs() {
-        parse();
+        parseStage(STAGE_SIGNATURES);
         return insigs;
     }
 
@@ -492,12 +582,7 @@ public class Block implements Cloneable {
         if (sum != 0) {
             return sum;
         }
-        if (xdagBlock == null) {
-            xdagBlock = getXdagBlock();
-        }
-        for (int i = 0; i < 16; i++) {
-            sum += xdagBlock.getField(i).getSum();
-        }
+        sum = getXdagBlock().getSum();
         return sum;
     }
 
@@ -516,22 +601,22 @@ public class Block implements Cloneable {
     }
 
     public long getTimestamp() {
-        parse();
+        parseStage(STAGE_HEADER);
         return timestamp;
     }
 
     public Address getFirstOutput() {
-        parse();
+        parseStage(STAGE_LINKS);
         return firstOutput;
     }
 
     public long getType() {
-        parse();
+        parseStage(STAGE_HEADER);
         return type;
     }
 
     public long getFee() {
-        parse();
+        parseStage(STAGE_HEADER);
         return fee;
     }
 
@@ -545,13 +630,31 @@ public class Block implements Cloneable {
         return res;
     }
 
+    /**
+     * 签名消息的前缀: 前length+1个字段 其余字段置0 与getSubRawData相同 但直接从区块数据计算 不复制. 对每个公钥调用signatureHash
+     */
+    public MessageDigest signatureDigest(int length) {
+        return getXdagBlock().getSignatureDigest(length);
+    }
+
+    /** 签名的hash sha256(sha256(前缀+压缩公钥)) 不改变prefix */
+    public static byte[] signatureHash(MessageDigest prefix, byte[] pubKey) {
+        try {
+            MessageDigest digest = (MessageDigest) prefix.clone();
+            digest.update(pubKey);
+            return digest.digest(digest.digest());
+        } catch (CloneNotSupportedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     private void setType(XdagField.FieldType type, int n) {
         long typeByte = type.asByte();
         this.type |= typeByte << (n << 2);
     }
 
     public List<Address> getLinks() {
-        parse();
+        parseStage(STAGE_LINKS);
         List<Address> links = new ArrayList<>();
         if (getFirstOutput() != null) {
             links.add(getFirstOutput());
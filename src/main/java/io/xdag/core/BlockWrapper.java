@@ -23,7 +23,12 @@
  */
 package io.xdag.core;
 
+import io.xdag.crypto.ECKey;
 import io.xdag.net.node.Node;
+import io.xdag.utils.ByteArrayWrapper;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
 
 public class BlockWrapper {
 
@@ -32,6 +37,12 @@ public class BlockWrapper {
     /** 记录区块接收节点 */
     private Node remoteNode;
     // private boolean isTransaction = false;
+    /** 签名验证通过的公钥 未验证时为null */
+    private List<ECKey> verifiedKeys;
+    /** 已验证可以使用的input */
+    private Set<ByteArrayWrapper> verifiedInputs = Collections.emptySet();
+    /** 存在不能使用的input */
+    private boolean invalid;
 
     public BlockWrapper(Block block, int ttl, Node remoteNode) {
         this.block = block;
@@ -62,4 +73,26 @@ public class BlockWrapper {
     public void setRemoteNode(Node remoteNode) {
         this.remoteNode = remoteNode;
     }
+
+    public void setVerified(List<ECKey> verifiedKeys, Set<ByteArrayWrapper> verifiedInputs, boolean invalid) {
+        this.verifiedKeys = verifiedKeys;
+        this.verifiedInputs = verifiedInputs;
+        this.invalid = invalid;
+    }
+
+    public boolean isVerified() {
+        return verifiedKeys != null;
+    }
+
+    public List<ECKey> getVerifiedKeys() {
+        return verifiedKeys;
+    }
+
+    public boolean isInputVerified(byte[] hashLow) {
+        return verifiedInputs.contains(new ByteArrayWrapper(hashLow));
+    }
+
+    public boolean isInvalid() {
+        return invalid;
+    }
 }
@@ -34,10 +34,19 @@ public interface Blockchain {
 
     ImportResult tryToConnect(Block block);
 
+    /** 连接已经过verifyBlock验证的区块 只检查缓存的验证结果 */
+    ImportResult tryToConnect(BlockWrapper blockWrapper);
+
+    /** 验证签名以及已存在的input能否使用 结果缓存在blockWrapper中 不持有stateLock */
+    void verifyBlock(BlockWrapper blockWrapper);
+
     Block createNewBlock(Map<Address, ECKey> pairs, List<Address> to, boolean mining);
 
     Block getBlockByHash(byte[] hash, boolean isRaw);
 
+    /** 最近一次导入后的状态快照 读取不加锁 */
+    ChainStats getStats();
+
     BigInteger getTopDiff();
 
     BigInteger getPretopDiff();
@@ -43,11 +43,23 @@ import static io.xdag.utils.FastByteComparisons.equalBytes;
 import static io.xdag.utils.MapUtils.getHead;
 
 import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.spongycastle.util.encoders.Hex;
@@ -55,14 +67,13 @@ import org.spongycastle.util.encoders.Hex;
 import io.xdag.Kernel;
 import io.xdag.config.Config;
 import io.xdag.crypto.ECKey;
-import io.xdag.crypto.Sha256Hash;
+import io.xdag.crypto.SignatureVerifier;
 import io.xdag.db.DatabaseFactory;
 import io.xdag.db.store.AccountStore;
 import io.xdag.db.store.BlockStore;
 import io.xdag.db.store.OrphanPool;
 import io.xdag.net.message.NetStatus;
 import io.xdag.utils.ByteArrayWrapper;
-import io.xdag.utils.BytesUtils;
 import io.xdag.utils.XdagTime;
 import io.xdag.wallet.Wallet;
 import io.xdag.wallet.key_internal_item;
@@ -73,17 +84,36 @@ public class BlockchainImpl implements Blockchain {
 
     private final ReentrantReadWriteLock stateLock = new ReentrantReadWriteLock();
 
+    /** 唯一修改链状态的线程 其他线程的导入请求在它的队列中排队 */
+    private volatile Thread importThread;
+    private final ExecutorService importer = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "ChainImporter");
+        thread.setDaemon(true);
+        importThread = thread;
+        return thread;
+    });
+    /** 每次导入结束后发布 读取不需要加锁 */
+    private volatile ChainStats stats;
+
     // private static long g_apollo_fork_time = 0;
     private Wallet wallet;
 
+    private DatabaseFactory dbFactory;
     private BlockStore blockStore;
     private AccountStore accountStore;
     /** 非Extra orphan存放 */
     private OrphanPool orphanPool;
 
-    private LinkedHashMap<ByteArrayWrapper, Block> MemOrphanPool = new LinkedHashMap<>();
+    /** 由导入线程修改 其他线程读取时需要同步 */
+    private final LinkedHashMap<ByteArrayWrapper, Block> MemOrphanPool = new LinkedHashMap<>();
+    /** MemOrphanPool中每个区块的加入序号 回滚时按序号恢复顺序 与MemOrphanPool一起同步 */
+    private final Map<ByteArrayWrapper, Long> extraSeq = new HashMap<>();
+    private long nextExtraSeq = 0;
+    /** 导入线程当前导入的回滚记录 */
+    private ImportUndo importUndo;
 
     private Map<ByteArrayWrapper, Integer> MemAccount = new ConcurrentHashMap<>();
+    private volatile Map<ByteArrayWrapper, Integer> walletKeyIndex;
     private BigInteger topDiff;
     /** 存放的是一个可能是最大难度的block hash */
     private byte[] top_main_chain;
@@ -93,6 +123,7 @@ public class BlockchainImpl implements Blockchain {
 
     public BlockchainImpl(Kernel kernel, DatabaseFactory dbFactory) {
         this.wallet = kernel.getWallet();
+        this.dbFactory = dbFactory;
         this.accountStore = kernel.getAccountStore();
         this.blockStore = kernel.getBlockStore();
         this.orphanPool = kernel.getOrphanPool();
@@ -101,154 +132,231 @@ public class BlockchainImpl implements Blockchain {
         // this.blockNumber = blockStore.getBlockNumber();
         this.netStatus = kernel.getNetStatus();
         this.netStatus.init(pretopDiff, blockStore.getMainNumber(), blockStore.getBlockNumber());
+        publishStats();
+    }
+
+    /** 在导入线程上发布当前状态的快照 */
+    private void publishStats() {
+        long extraSize;
+        synchronized (MemOrphanPool) {
+            extraSize = MemOrphanPool.size();
+        }
+        stats = new ChainStats(topDiff, top_main_chain, pretop, pretopDiff, blockStore.getMainNumber(),
+                blockStore.getBlockNumber(), orphanPool.getOrphanSize(), extraSize);
     }
 
-    /** 尝试去连接这个块 */
+    @Override
+    public ChainStats getStats() {
+        return stats;
+    }
+
+    /** 尝试去连接这个块 一个区块的所有写入在同一批次中提交 */
     @Override
     public ImportResult tryToConnect(Block block) {
+        return tryToConnect(block, null);
+    }
+
+    @Override
+    public ImportResult tryToConnect(BlockWrapper blockWrapper) {
+        return tryToConnect(blockWrapper.getBlock(), blockWrapper.isVerified() ? blockWrapper : null);
+    }
+
+    /** 导入总是在导入线程上执行 其他线程提交后等待结果 */
+    private ImportResult tryToConnect(Block block, BlockWrapper verified) {
+        if (Thread.currentThread() == importThread) {
+            return importBlock(block, verified);
+        }
+        Future<ImportResult> future = importer.submit(() -> importBlock(block, verified));
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for block import", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+
+    private ImportResult importBlock(Block block, BlockWrapper verified) {
         log.debug("======Connect New Block:" + Hex.toHexString(block.getHashLow()) + "======");
         ReentrantReadWriteLock.WriteLock writeLock = this.stateLock.writeLock();
         writeLock.lock();
+        boolean committed = false;
         try {
+            importUndo = new ImportUndo(block);
+            dbFactory.beginBatch();
+            blockStore.beginBatch();
+            accountStore.beginBatch();
+            orphanPool.beginBatch();
+            ImportResult result = connect(block, verified);
+            dbFactory.commitBatch();
+            committed = true;
+            return result;
+        } finally {
+            try {
+                if (committed) {
+                    blockStore.commitBatch();
+                    accountStore.commitBatch();
+                    orphanPool.commitBatch();
+                } else {
+                    // 连接或提交失败 数据库批次与内存状态一起回到导入前
+                    dbFactory.rollbackBatch();
+                    blockStore.rollbackBatch();
+                    accountStore.rollbackBatch();
+                    orphanPool.rollbackBatch();
+                    importUndo.restore();
+                }
+            } finally {
+                importUndo = null;
+                publishStats();
+                writeLock.unlock();
+            }
+        }
+    }
 
-            ImportResult result = ImportResult.IMPORTED_NOT_BEST;
-            // 如果区块已经存在不处理
-            if (isExist(block.getHashLow())) {
-                return ImportResult.EXIST;
-            }
-
-            if (isExtraBlock(block)) {
-                updateBlockFlag(block, BI_EXTRA, true);
-            }
-
-            List<Address> all = block.getLinks();
-            // 检查区块的引用区块是否都存在,对所有input和output放入block（可能在pending或db中取出
-            for (Address ref : all) {
-                if (ref != null) {
-                    if (!isExist(ref.getHashLow())) {
-                        log.debug("No Parent " + Hex.toHexString(ref.getHashLow()));
-                        result = ImportResult.NO_PARENT;
-                        result.setHashLow(ref.getHashLow());
-                        return result;
-                    } else {
-                        if (!ref.getAmount().equals(BigInteger.ZERO)) {
-                            updateBlockFlag(block, BI_EXTRA, false);
-                        }
+    private ImportResult connect(Block block, BlockWrapper verified) {
+        ImportResult result = ImportResult.IMPORTED_NOT_BEST;
+        // 如果区块已经存在不处理
+        if (isExist(block.getHashLow())) {
+            return ImportResult.EXIST;
+        }
+
+        if (isExtraBlock(block)) {
+            updateBlockFlag(block, BI_EXTRA, true);
+        }
+
+        List<Address> all = block.getLinks();
+        // 检查区块的引用区块是否都存在,对所有input和output放入block（可能在pending或db中取出
+        for (Address ref : all) {
+            if (ref != null) {
+                if (!isExist(ref.getHashLow())) {
+                    log.debug("No Parent " + Hex.toHexString(ref.getHashLow()));
+                    result = ImportResult.NO_PARENT;
+                    result.setHashLow(ref.getHashLow());
+                    return result;
+                } else {
+                    if (!ref.getAmount().equals(BigInteger.ZERO)) {
+                        updateBlockFlag(block, BI_EXTRA, false);
                     }
                 }
             }
+        }
 
-            // 检查区块合法性 检查input是否能使用
-            if (!canUseInput(block)) {
-                return ImportResult.INVALID_BLOCK;
-            }
+        // 检查区块合法性 检查input是否能使用
+        if (!canUseInput(block, verified)) {
+            return ImportResult.INVALID_BLOCK;
+        }
 
-            // 如果是自己的区块
-            if (checkMineAndAdd(block)) {
-                log.debug("A block hash:" + Hex.toHexString(block.getHashLow()) + " become mine");
-                updateBlockFlag(block, BI_OURS, true);
-            }
+        // 如果是自己的区块
+        if (checkMineAndAdd(block)) {
+            log.debug("A block hash:" + Hex.toHexString(block.getHashLow()) + " become mine");
+            updateBlockFlag(block, BI_OURS, true);
+        }
 
-            // 更新区块难度和maxdifflink
-            calculateBlockDiff(block);
+        // 更新区块难度和maxdifflink
+        calculateBlockDiff(block);
 
-            // 检查当前主链
-            checkNewMain();
+        // 检查当前主链
+        checkNewMain();
 
-            // 更新pretop
-            setPretop(block);
-            if (top_main_chain != null) {
-                setPretop(getBlockByHash(top_main_chain, false));
-            }
+        // 更新pretop
+        setPretop(block);
+        if (top_main_chain != null) {
+            setPretop(getBlockByHash(top_main_chain, false));
+        }
 
-            // TODO:extra 处理
-            if (MemOrphanPool.size() > MAX_ALLOWED_EXTRA) {
-                Block reuse = getHead(MemOrphanPool).getValue();
-                log.debug("remove when extra too big");
-                removeOrphan(reuse, OrphanRemoveActions.ORPHAN_REMOVE_REUSE);
-                netStatus.decBlock();
-                if ((reuse.getFlags() & BI_OURS) != 0) {
-                    removeAccount(reuse);
-                }
+        // TODO:extra 处理
+        if (getExtraCount() > MAX_ALLOWED_EXTRA) {
+            Block reuse;
+            synchronized (MemOrphanPool) {
+                reuse = getHead(MemOrphanPool).getValue();
             }
+            log.debug("remove when extra too big");
+            removeOrphan(reuse, OrphanRemoveActions.ORPHAN_REMOVE_REUSE);
+            netStatus.decBlock();
+            if ((reuse.getFlags() & BI_OURS) != 0) {
+                removeAccount(reuse);
+            }
+        }
 
-            // 根据难度更新主链
-            // 判断难度是否是比当前最大，并以此更新topmainchain
-            if (block.getDifficulty().compareTo(getTopDiff()) > 0) {
-                // 切换主链 fork
-                Block blockRef = null;
-                Block blockRef0 = null;
-                // 把当前区块根据最大难度链接块递归查询到不是主链块为止 将这段的区块更新为主链块
-                for (blockRef = block; blockRef != null
-                        && ((blockRef.flags & BI_MAIN_CHAIN) == 0); blockRef = getMaxDiffLink(blockRef, false)) {
-                    Block tmpRef = getMaxDiffLink(blockRef, false);
-                    if (tmpRef != null) {
-                    }
-                    if ((tmpRef == null || blockRef.getDifficulty().compareTo(calculateBlockDiff(tmpRef)) > 0)
-                            && (blockRef0 == null
-                            || XdagTime.getEpoch(blockRef0.getTimestamp()) > XdagTime
-                            .getEpoch(blockRef.getTimestamp()))) {
-                        updateBlockFlag(blockRef, BI_MAIN_CHAIN, true);
-                        blockRef0 = blockRef;
-                    }
+        // 根据难度更新主链
+        // 判断难度是否是比当前最大，并以此更新topmainchain
+        if (block.getDifficulty().compareTo(topDiff) > 0) {
+            // 切换主链 fork
+            Block blockRef = null;
+            Block blockRef0 = null;
+            // 把当前区块根据最大难度链接块递归查询到不是主链块为止 将这段的区块更新为主链块
+            for (blockRef = block; blockRef != null
+                    && ((blockRef.flags & BI_MAIN_CHAIN) == 0); blockRef = getMaxDiffLink(blockRef, false)) {
+                Block tmpRef = getMaxDiffLink(blockRef, false);
+                if (tmpRef != null) {
                 }
-                // 分叉点
-                if (blockRef != null
-                        && blockRef0 != null
-                        && !blockRef.equals(blockRef0)
-                        && XdagTime.getEpoch(blockRef.getTimestamp()) == XdagTime.getEpoch(blockRef0.getTimestamp())) {
-                    blockRef = getMaxDiffLink(blockRef, false);
+                if ((tmpRef == null || blockRef.getDifficulty().compareTo(calculateBlockDiff(tmpRef)) > 0)
+                        && (blockRef0 == null
+                        || XdagTime.getEpoch(blockRef0.getTimestamp()) > XdagTime
+                        .getEpoch(blockRef.getTimestamp()))) {
+                    updateBlockFlag(blockRef, BI_MAIN_CHAIN, true);
+                    blockRef0 = blockRef;
                 }
-                // 将主链回退到blockref
-                unWindMain(blockRef);
+            }
+            // 分叉点
+            if (blockRef != null
+                    && blockRef0 != null
+                    && !blockRef.equals(blockRef0)
+                    && XdagTime.getEpoch(blockRef.getTimestamp()) == XdagTime.getEpoch(blockRef0.getTimestamp())) {
+                blockRef = getMaxDiffLink(blockRef, false);
+            }
+            // 将主链回退到blockref
+            unWindMain(blockRef);
 
-                setTopDiff(block.getDifficulty());
+            setTopDiff(block.getDifficulty());
 
-                setTopMainchain(block);
+            setTopMainchain(block);
 
-                result = ImportResult.IMPORTED_BEST;
-            }
-
-            // remove links
-            for (int i = 0; i < all.size(); i++) {
-                log.debug("remove links");
-                removeOrphan(
-                        getBlockByHash(all.get(i).getHashLow(), false),
-                        (block.flags & BI_EXTRA) != 0
-                                ? OrphanRemoveActions.ORPHAN_REMOVE_EXTRA
-                                : OrphanRemoveActions.ORPHAN_REMOVE_NORMAL);
-                // TODO:add backref
-                // if(!all.get(i).getAmount().equals(BigInteger.ZERO)){
-                // Block blockRef = getBlockByHash(all.get(i).getHashLow(),false);
-                // }
-            }
+            result = ImportResult.IMPORTED_BEST;
+        }
 
-            // 新增区块
-            netStatus.incBlock();
-            if (netStatus.getTotalnblocks() < netStatus.getNblocks()) {
-                netStatus.setTotalnblocks(netStatus.getNblocks());
-            }
+        // remove links
+        for (int i = 0; i < all.size(); i++) {
+            log.debug("remove links");
+            removeOrphan(
+                    getBlockByHash(all.get(i).getHashLow(), false),
+                    (block.flags & BI_EXTRA) != 0
+                            ? OrphanRemoveActions.ORPHAN_REMOVE_EXTRA
+                            : OrphanRemoveActions.ORPHAN_REMOVE_NORMAL);
+            // TODO:add backref
+            // if(!all.get(i).getAmount().equals(BigInteger.ZERO)){
+            // Block blockRef = getBlockByHash(all.get(i).getHashLow(),false);
+            // }
+        }
 
-            log.debug("======New block waiting to link======");
-            if ((block.flags & BI_EXTRA) != 0) {
-                log.debug(Hex.toHexString(block.getHashLow()) + " into extra");
-                MemOrphanPool.put(new ByteArrayWrapper(block.getHashLow()), block);
-            } else {
-                log.debug(Hex.toHexString(block.getHashLow()) + " into orphan");
-                saveBlock(block);
-                orphanPool.addOrphan(block);
-            }
-            log.debug("Current diff:" + getTopDiff().toString(16));
+        // 新增区块
+        netStatus.incBlock();
 
-            return result;
-        } finally {
-            writeLock.unlock();
+        log.debug("======New block waiting to link======");
+        if ((block.flags & BI_EXTRA) != 0) {
+            log.debug(Hex.toHexString(block.getHashLow()) + " into extra");
+            putExtra(block);
+        } else {
+            log.debug(Hex.toHexString(block.getHashLow()) + " into orphan");
+            saveBlock(block);
+            orphanPool.addOrphan(block);
         }
+        log.debug("Current diff:" + topDiff.toString(16));
+
+        return result;
     }
 
     /** 检查更新主链 * */
     @Override
-    public synchronized void checkNewMain() {
+    public void checkNewMain() {
         log.debug("Check New Main...");
         Block p = null;
         int i = 0;
@@ -271,7 +379,7 @@ public class BlockchainImpl implements Blockchain {
     }
 
     /** 回退到区块block * */
-    public synchronized void unWindMain(Block block) {
+    public void unWindMain(Block block) {
         if (block == null) {
             return;
         }
@@ -287,50 +395,112 @@ public class BlockchainImpl implements Blockchain {
         }
     }
 
-    /** 执行区块并返回手续费 * */
-    private long applyBlock(Block block) {
-        long sumIn = 0;
-        long sumOut = 0; // sumOut是用来支付其他区块link自己的手续费 现在先用0
-        // 处理过
-        if ((block.flags & BI_MAIN_REF) != 0) {
+    /** applyBlock中一个区块的处理状态 */
+    private static class ApplyFrame {
+        final Block block;
+        final List<Address> links;
+        /** 下一个要处理的link */
+        int next = 0;
+        /** 正在处理的link区块 */
+        Block ref;
+
+        ApplyFrame(Block block, List<Address> links) {
+            this.block = block;
+            this.links = links;
+        }
+    }
+
+    /**
+     * 执行区块并返回手续费 按引用顺序深度优先执行所有引用区块 使用显式栈避免深链递归. 区块已处理过返回-1
+     */
+    private long applyBlock(ApplyBatch batch, Block root) {
+        if ((root.flags & BI_MAIN_REF) != 0) {
             return -1;
         }
+        ApplyFrame frame = enterApply(batch, root);
+        if (frame == null) {
+            return 0;
+        }
+        Deque<ApplyFrame> stack = new ArrayDeque<>();
+        stack.push(frame);
+        while (!stack.isEmpty()) {
+            frame = stack.peek();
+            if (frame.ref != null) {
+                // 子区块已执行完成
+                linkApplied(batch, frame, 0);
+            }
+            if (frame.next < frame.links.size()) {
+                Block ref = batch.get(frame.links.get(frame.next).getHashLow(), true);
+                frame.ref = ref;
+                if ((ref.flags & BI_MAIN_REF) != 0) {
+                    linkApplied(batch, frame, -1);
+                    continue;
+                }
+                ApplyFrame child = enterApply(batch, ref);
+                if (child == null) {
+                    // 没有link的区块直接执行完成
+                    linkApplied(batch, frame, 0);
+                } else {
+                    stack.push(child);
+                }
+                continue;
+            }
+            stack.pop();
+            finishApply(batch, frame);
+        }
+        return 0;
+    }
+
+    /** 标记区块为已处理 有link时返回待处理的frame 没有link时直接执行完成并返回null */
+    private ApplyFrame enterApply(ApplyBatch batch, Block block) {
         // 设置为已处理
-        updateBlockFlag(block, BI_MAIN_REF, true);
+        batch.updateBlockFlag(block, BI_MAIN_REF, true);
 
         List<Address> links = block.getLinks();
         if (links == null || links.size() == 0) {
-            updateBlockFlag(block, BI_APPLIED, true);
-            return 0;
+            batch.updateBlockFlag(block, BI_APPLIED, true);
+            return null;
         }
+        return new ApplyFrame(block, links);
+    }
 
-        for (int i = 0; i < links.size(); i++) {
-            Block ref = getBlockByHash(links.get(i).getHashLow(), true);
-            long ret = applyBlock(ref);
-            if (ret == -1) {
-                continue;
-            }
-            updateBlockRef(ref, new Address(block));
-            if (amount2xdag(block.getAmount() + links.get(i).getAmount().longValue()) >= amount2xdag(
-                    block.getAmount())) {
-                acceptAmount(block, links.get(i).getAmount().longValue());
-            }
+    /** 当前link区块执行完成 ret为-1时表示它已被其他区块执行过 */
+    private void linkApplied(ApplyBatch batch, ApplyFrame frame, long ret) {
+        Address link = frame.links.get(frame.next);
+        Block ref = frame.ref;
+        frame.ref = null;
+        frame.next++;
+        if (ret == -1) {
+            return;
         }
+        Block block = frame.block;
+        batch.updateBlockRef(ref, new Address(block));
+        if (amount2xdag(block.getAmount() + link.getAmount().longValue()) >= amount2xdag(
+                block.getAmount())) {
+            batch.acceptAmount(block, link.getAmount().longValue());
+        }
+    }
 
+    /** 所有link执行完成后 检查并转移input与output的金额 */
+    private void finishApply(ApplyBatch batch, ApplyFrame frame) {
+        Block block = frame.block;
+        List<Address> links = frame.links;
+        long sumIn = 0;
+        long sumOut = 0; // sumOut是用来支付其他区块link自己的手续费 现在先用0
         for (int i = 0; i < links.size(); i++) {
             if (links.get(i).getType() == XdagField.FieldType.XDAG_FIELD_IN) {
-                Block ref = getBlockByHash(links.get(i).getHashLow(), false);
+                Block ref = batch.get(links.get(i).getHashLow(), false);
 
                 if (amount2xdag(ref.getAmount()) < amount2xdag(links.get(i).getAmount().longValue())) {
-                    return 0;
+                    return;
                 }
                 if (amount2xdag(sumIn + links.get(i).getAmount().longValue()) < amount2xdag(sumIn)) {
-                    return 0;
+                    return;
                 }
                 sumIn += links.get(i).getAmount().longValue();
             } else {
                 if (amount2xdag(sumOut + links.get(i).getAmount().longValue()) < amount2xdag(sumOut)) {
-                    return 0;
+                    return;
                 }
                 sumOut += links.get(i).getAmount().longValue();
             }
@@ -339,63 +509,69 @@ public class BlockchainImpl implements Blockchain {
         if (amount2xdag(sumIn + block.getAmount()) < amount2xdag(sumOut)
                 || amount2xdag(sumIn + block.getAmount()) < amount2xdag(sumIn)) {
             log.debug("exec fail!");
-            return 0;
+            return;
         }
 
         for (int i = 0; i < links.size(); i++) {
+            Block ref = batch.get(links.get(i).getHashLow(), false);
             if (links.get(i).getType() == XdagField.FieldType.XDAG_FIELD_IN) {
-                Block ref = getBlockByHash(links.get(i).getHashLow(), false);
-                acceptAmount(ref, -links.get(i).getAmount().longValue());
+                batch.acceptAmount(ref, -links.get(i).getAmount().longValue());
             } else {
-                Block ref = getBlockByHash(links.get(i).getHashLow(), false);
-                acceptAmount(ref, links.get(i).getAmount().longValue());
+                batch.acceptAmount(ref, links.get(i).getAmount().longValue());
             }
         }
 
         // 不一定大于0 因为可能部分金额扣除
         long remain = sumIn - sumOut;
-        acceptAmount(block, remain);
-        updateBlockFlag(block, BI_APPLIED, true);
-        // log.debug("====Apply block["+Hex.toHexString(block.getHashLow())+"]
-        // done====");
+        batch.acceptAmount(block, remain);
+        batch.updateBlockFlag(block, BI_APPLIED, true);
+    }
 
-        return 0;
+    /** 撤销区块以及由它执行的引用区块 顺序与递归版本相同 */
+    private void unApplyBlock(ApplyBatch batch, Block root) {
+        Deque<ApplyFrame> stack = new ArrayDeque<>();
+        stack.push(enterUnApply(batch, root));
+        while (!stack.isEmpty()) {
+            ApplyFrame frame = stack.peek();
+            if (frame.next >= frame.links.size()) {
+                stack.pop();
+                continue;
+            }
+            Block ref = batch.get(frame.links.get(frame.next++).getHashLow(), true);
+            if (ref.getRef() != null
+                    && equalBytes(ref.getRef().getHashLow(), frame.block.getHashLow())
+                    && ((ref.getFlags() & BI_MAIN_REF) != 0)) {
+                stack.push(enterUnApply(batch, ref));
+            }
+        }
     }
 
-    public long unApplyBlock(Block block) {
+    /** 退回区块自身的金额并清除执行标志 */
+    private ApplyFrame enterUnApply(ApplyBatch batch, Block block) {
         List<Address> links = block.getLinks();
         if ((block.flags & BI_APPLIED) != 0) {
             long sum = 0;
             for (int i = 0; i < links.size(); i++) {
+                Block ref = batch.get(links.get(i).getHashLow(), false);
                 if (links.get(i).getType() == XdagField.FieldType.XDAG_FIELD_IN) {
-                    Block ref = getBlockByHash(links.get(i).getHashLow(), false);
-                    acceptAmount(ref, links.get(i).getAmount().longValue());
+                    batch.acceptAmount(ref, links.get(i).getAmount().longValue());
                     sum -= links.get(i).getAmount().longValue();
                 } else {
-                    Block ref = getBlockByHash(links.get(i).getHashLow(), false);
-                    acceptAmount(ref, -links.get(i).getAmount().longValue());
+                    batch.acceptAmount(ref, -links.get(i).getAmount().longValue());
                     sum += links.get(i).getAmount().longValue();
                 }
             }
-            acceptAmount(block, sum);
-            updateBlockFlag(block, BI_APPLIED, false);
+            batch.acceptAmount(block, sum);
+            batch.updateBlockFlag(block, BI_APPLIED, false);
         }
-        updateBlockFlag(block, BI_MAIN_REF, false);
-        updateBlockRef(block, null);
-
-        for (int i = 0; i < links.size(); i++) {
-            Block ref = getBlockByHash(links.get(i).getHashLow(), true);
-            if (ref.getRef() != null
-                    && equalBytes(ref.getRef().getHashLow(), block.getHashLow())
-                    && ((ref.getFlags() & BI_MAIN_REF) != 0)) {
-                acceptAmount(block, unApplyBlock(ref));
-            }
-        }
-        return 0;
+        batch.updateBlockFlag(block, BI_MAIN_REF, false);
+        batch.updateBlockRef(block, null);
+        batch.unapplied(block);
+        return new ApplyFrame(block, links);
     }
 
     /** 设置以block为主块的主链 要么分叉 要么延长 * */
-    public synchronized void setMain(Block block) {
+    public void setMain(Block block) {
 
         blockStore.mainNumberInc();
 
@@ -408,32 +584,118 @@ public class BlockchainImpl implements Blockchain {
 
         // long reward = getCurrentReward();
 
-        updateBlockFlag(block, BI_MAIN, true);
+        ApplyBatch batch = new ApplyBatch(block);
+        batch.updateBlockFlag(block, BI_MAIN, true);
 
         // 接收奖励
-        acceptAmount(block, reward);
+        batch.acceptAmount(block, reward);
 
-        // 递归执行主块引用的区块 并获取手续费
-        acceptAmount(block, applyBlock(block));
+        // 执行主块引用的区块 并获取手续费
+        batch.acceptAmount(block, applyBlock(batch, block));
 
         // 主块REF指向自身
-        updateBlockRef(block, new Address(block));
+        batch.updateBlockRef(block, new Address(block));
+        batch.flush();
         // log.info("set mainblock [{}]", Hex.toHexString(block.getHash()));
 
     }
 
     /** 取消Block主块身份 * */
-    public synchronized void unSetMain(Block block) {
+    public void unSetMain(Block block) {
         blockStore.mainNumberDec();
         netStatus.decMain();
 
         // long amount = getCurrentReward();
         long amount = getReward(block.getTimestamp(), blockStore.getMainNumber());
-        updateBlockFlag(block, BI_MAIN, false);
+        ApplyBatch batch = new ApplyBatch(block);
+        batch.updateBlockFlag(block, BI_MAIN, false);
 
         // 去掉奖励和引用块的手续费
-        acceptAmount(block, -amount);
-        acceptAmount(block, unApplyBlock(block));
+        batch.acceptAmount(block, -amount);
+        unApplyBlock(batch, block);
+        batch.flush();
+    }
+
+    /**
+     * 执行与撤销主块时访问的区块 每个hash只对应一个对象. 金额 标志与ref的修改记录在对象上 结束时每个区块只写一次
+     * 我们的余额变化也只累计一次.
+     */
+    private class ApplyBatch {
+        private final Map<ByteArrayWrapper, Block> blocks = new HashMap<>();
+        /** <hashlow, 修改过的字段> */
+        private final Map<ByteArrayWrapper, Set<Byte>> dirty = new LinkedHashMap<>();
+        private final List<Block> unapplied = new ArrayList<>();
+        private long ourAmount = 0;
+
+        ApplyBatch(Block root) {
+            blocks.put(new ByteArrayWrapper(root.getHashLow()), root);
+        }
+
+        Block get(byte[] hashlow, boolean isRaw) {
+            ByteArrayWrapper key = new ByteArrayWrapper(hashlow);
+            Block block = blocks.get(key);
+            if (block == null) {
+                block = getBlockByHash(hashlow, isRaw);
+                blocks.put(key, block);
+            } else if (isRaw && !block.hasXdagBlock()) {
+                // 之前只读取了区块信息 补充原始数据以取得links
+                Block raw = getBlockByHash(hashlow, true);
+                block.setXdagBlock(raw.getXdagBlock());
+                block.setParsed(false);
+            }
+            return block;
+        }
+
+        void acceptAmount(Block block, long amount) {
+            block.setAmount(block.getAmount() + amount);
+            markDirty(block, BlockStore.BLOCK_AMOUNT);
+            if ((block.flags & BI_OURS) != 0) {
+                ourAmount += amount;
+            }
+        }
+
+        void updateBlockFlag(Block block, byte flag, boolean direction) {
+            if (direction) {
+                block.flags |= flag;
+            } else {
+                block.flags &= ~flag;
+            }
+            if (block.isSaved) {
+                markDirty(block, BlockStore.BLOCK_FLAG);
+            }
+        }
+
+        void updateBlockRef(Block block, Address ref) {
+            block.setRef(ref);
+            if (block.isSaved) {
+                markDirty(block, BlockStore.BLOCK_REF);
+            }
+        }
+
+        void unapplied(Block block) {
+            unapplied.add(block);
+        }
+
+        private void markDirty(Block block, byte field) {
+            dirty.computeIfAbsent(new ByteArrayWrapper(block.getHashLow()), k -> new HashSet<>()).add(field);
+        }
+
+        void flush() {
+            for (Map.Entry<ByteArrayWrapper, Set<Byte>> entry : dirty.entrySet()) {
+                Block block = blocks.get(entry.getKey());
+                blockStore.updateBlockInfo(block, entry.getValue());
+                if ((block.flags & BI_OURS) != 0 && entry.getValue().contains(BlockStore.BLOCK_AMOUNT)) {
+                    accountStore.updateAmount(block.getHashLow(), block.getAmount());
+                }
+            }
+            if (ourAmount != 0) {
+                log.debug("====Our balance add new amount:" + ourAmount + "====");
+                accountStore.updateGBanlance(ourAmount);
+            }
+            for (Block block : unapplied) {
+                blockStore.evictBlockInfo(block.getHashLow());
+            }
+        }
     }
 
     @Override
@@ -468,7 +730,7 @@ public class BlockchainImpl implements Blockchain {
             pretop = new Address(getPreTopMainBlockForLink(sendtime), XdagField.FieldType.XDAG_FIELD_OUT);
             res++;
         }
-        List<Address> refs = getBlockFromOrphanPool(16 - res);
+        List<Address> refs = getBlockFromOrphanPool(16 - res, sendtime);
         return new Block(sendtime, pretop, all, refs, mining, keys, defkeyIndex);
     }
 
@@ -480,7 +742,7 @@ public class BlockchainImpl implements Blockchain {
             pretop = new Address(getPreTopMainBlockForLink(sendtime), XdagField.FieldType.XDAG_FIELD_OUT);
             res++;
         }
-        List<Address> refs = getBlockFromOrphanPool(16 - res);
+        List<Address> refs = getBlockFromOrphanPool(16 - res, sendtime);
         return new Block(sendtime, pretop, null, refs, true, null, -1);
     }
 
@@ -499,28 +761,36 @@ public class BlockchainImpl implements Blockchain {
         return orphanPool.getOrphan(num);
     }
 
+    /** 只取时间早于新区块的orphan */
+    public List<Address> getBlockFromOrphanPool(int num, long sendTime) {
+        return orphanPool.getOrphan(num, sendTime);
+    }
+
     public byte[] getPreTopMainBlockForLink(long sendTime) {
         long maintime = XdagTime.getEpoch(sendTime);
         Block topInfo = null;
-        if (top_main_chain == null) {
+        // 创建区块的线程读取快照
+        ChainStats current = stats;
+        byte[] top = current.getTopMainChain();
+        if (top == null) {
             return null;
         }
 
-        topInfo = getBlockByHash(top_main_chain, false);
+        topInfo = getBlockByHash(top, false);
         if (XdagTime.getEpoch(topInfo.getTimestamp()) == maintime) {
-            return pretop;
+            return current.getPretop();
         } else {
 
-            return top_main_chain;
+            return top;
         }
     }
 
     @Override
     public byte[] getTop_main_chain() {
-        return top_main_chain;
+        return stats.getTopMainChain();
     }
 
-    public synchronized void setPretop(Block block) {
+    public void setPretop(Block block) {
         if (block == null) {
             return;
         }
@@ -558,10 +828,11 @@ public class BlockchainImpl implements Blockchain {
 
         BigInteger maxDiff = diff0;
         Address maxdifflink = null;
+        Block maxDiffBlock = null;
+        long epoch = XdagTime.getEpoch(block.getTimestamp());
 
-        // 临时区块
-        Block tmpBlock;
         if (block.getLinks().size() == 0) {
+            block.setPrevEpochDiff(BigInteger.ZERO);
             return diff0;
         }
 
@@ -571,46 +842,81 @@ public class BlockchainImpl implements Blockchain {
             Block refBlock = getBlockByHash(ref.getHashLow(), false);
 
             // 如果引用的那个快的epoch 小于当前这个块的回合
-            if (XdagTime.getEpoch(refBlock.getTimestamp()) < XdagTime.getEpoch(block.getTimestamp())) {
+            if (XdagTime.getEpoch(refBlock.getTimestamp()) < epoch) {
                 // 如果难度大于当前最大难度
                 BigInteger curDiff = refBlock.getDifficulty().add(diff0);
                 if (curDiff.compareTo(maxDiff) > 0) {
                     maxDiff = curDiff;
                     maxdifflink = ref;
+                    maxDiffBlock = refBlock;
                 }
             } else {
                 // 计算出来的diff
                 // 1. 不在同一epoch的maxdiff+diff0
                 // 2. 同一epoch的maxdiff
-                tmpBlock = refBlock; // tmpBlock是link中的
                 BigInteger curDiff = refBlock.getDifficulty();
-                while ((tmpBlock != null)
-                        && XdagTime.getEpoch(tmpBlock.getTimestamp()) == XdagTime.getEpoch(block.getTimestamp())) {
-                    tmpBlock = getMaxDiffLink(tmpBlock, false);
-                }
-                if (tmpBlock != null
-                        && (XdagTime.getEpoch(tmpBlock.getTimestamp()) < XdagTime.getEpoch(block.getTimestamp()))) {
-                    curDiff = tmpBlock.getDifficulty().add(diff0);
+                if (XdagTime.getEpoch(refBlock.getTimestamp()) == epoch) {
+                    BigInteger prevDiff = getPrevEpochDiff(refBlock);
+                    if (prevDiff.signum() > 0) {
+                        curDiff = prevDiff.add(diff0);
+                    }
                 }
                 if (curDiff.compareTo(maxDiff) > 0) {
                     maxDiff = curDiff;
                     maxdifflink = ref;
+                    maxDiffBlock = refBlock;
                 }
             }
         }
         block.setDifficulty(maxDiff);
         block.setMaxDifflink(maxdifflink);
+        block.setPrevEpochDiff(prevEpochDiffOf(epoch, maxDiffBlock));
         return maxDiff;
     }
 
+    /** 以maxDiffBlock为maxdifflink 且在epoch中的区块的prevEpochDiff */
+    private BigInteger prevEpochDiffOf(long epoch, Block maxDiffBlock) {
+        if (maxDiffBlock == null) {
+            return BigInteger.ZERO;
+        }
+        long refEpoch = XdagTime.getEpoch(maxDiffBlock.getTimestamp());
+        if (refEpoch < epoch) {
+            return maxDiffBlock.getDifficulty();
+        } else if (refEpoch > epoch) {
+            return BigInteger.ZERO;
+        }
+        return getPrevEpochDiff(maxDiffBlock);
+    }
+
+    /** 区块maxdifflink链上第一个之前epoch区块的难度 没有时为0 旧记录没有保存时沿链查找 */
+    private BigInteger getPrevEpochDiff(Block block) {
+        if (block.getPrevEpochDiff() != null) {
+            return block.getPrevEpochDiff();
+        }
+        long epoch = XdagTime.getEpoch(block.getTimestamp());
+        Block tmpBlock = block;
+        while (tmpBlock != null && XdagTime.getEpoch(tmpBlock.getTimestamp()) == epoch) {
+            tmpBlock = getMaxDiffLink(tmpBlock, false);
+        }
+        BigInteger prevDiff = tmpBlock != null && XdagTime.getEpoch(tmpBlock.getTimestamp()) < epoch
+                ? tmpBlock.getDifficulty()
+                : BigInteger.ZERO;
+        block.setPrevEpochDiff(prevDiff);
+        return prevDiff;
+    }
+
     @Override
     public Block getBlockByHash(byte[] hashlow, boolean isRaw) {
         if (hashlow == null) {
             return null;
         }
-        ByteArrayWrapper key = new ByteArrayWrapper(hashlow);
-        if (MemOrphanPool.containsKey(key)) {
-            return MemOrphanPool.get(key);
+        Block extra = getExtraBlock(hashlow);
+        if (extra != null) {
+            // extra区块只在内存中 导入中修改前记录它的状态
+            if (importUndo != null && Thread.currentThread() == importThread) {
+                importUndo.touchBlock(extra);
+            }
+            return extra;
         }
         return blockStore.getBlockByHash(hashlow, isRaw);
     }
@@ -624,7 +930,7 @@ public class BlockchainImpl implements Blockchain {
 
     @Override
     public BigInteger getTopDiff() {
-        return topDiff;
+        return stats.getTopDiff();
     }
 
     public void setTopDiff(BigInteger diff) {
@@ -651,12 +957,11 @@ public class BlockchainImpl implements Blockchain {
                 // 那removeBlockInfo就是完整的
                 // 从MemOrphanPool中去除
                 ByteArrayWrapper key = new ByteArrayWrapper(removeBlockInfo.getHashLow());
+                Block removeBlockRaw = removeExtra(key);
                 // 如果不存在
-                if (!MemOrphanPool.containsKey(key)) {
+                if (removeBlockRaw == null) {
                     return;
                 }
-                Block removeBlockRaw = MemOrphanPool.get(key);
-                MemOrphanPool.remove(key);
                 if (action != OrphanRemoveActions.ORPHAN_REMOVE_REUSE) {
                     // 将区块保存
                     saveBlock(removeBlockRaw);
@@ -712,7 +1017,7 @@ public class BlockchainImpl implements Blockchain {
         if (MemAccount.containsKey(new ByteArrayWrapper(block.getHash()))) {
             log.debug("new account");
             addNewAccount(block, MemAccount.get(new ByteArrayWrapper(block.getHash())));
-            MemAccount.remove(new ByteArrayWrapper(block.getHash()));
+            removeMemAccount(new ByteArrayWrapper(block.getHash()));
         }
 
         if  (block.isPretopCandidate()) {
@@ -730,12 +1035,18 @@ public class BlockchainImpl implements Blockchain {
 
     @Override
     public long getOrphanSize() {
-        return orphanPool.getOrphanSize();
+        return stats.getOrphanSize();
     }
 
     @Override
     public long getExtraSize() {
-        return MemOrphanPool.size();
+        return stats.getExtraSize();
+    }
+
+    private int getExtraCount() {
+        synchronized (MemOrphanPool) {
+            return MemOrphanPool.size();
+        }
     }
 
     @Override
@@ -745,54 +1056,113 @@ public class BlockchainImpl implements Blockchain {
 
     @Override
     public long getMainBlockSize() {
-        return blockStore.getMainNumber();
+        return stats.getMainNumber();
     }
 
     @Override
     public long getBlockSize() {
-        return blockStore.getBlockNumber();
+        return stats.getBlockNumber();
     }
 
-    private boolean canUseInput(Block block) {
+    @Override
+    public void verifyBlock(BlockWrapper blockWrapper) {
+        Block block = blockWrapper.getBlock();
         List<ECKey> ecKeys = block.verifiedKeys();
         List<Address> input = block.getInputs();
+        Set<ByteArrayWrapper> verifiedInputs = new HashSet<>();
+        boolean invalid = false;
+        for (Address in : input) {
+            // 还不存在的input在连接时验证
+            Block inBlock = blockStore.getBlockByHash(in.getHashLow(), true);
+            if (inBlock == null) {
+                continue;
+            }
+            if (!canUseInput(inBlock, ecKeys)) {
+                invalid = true;
+                break;
+            }
+            verifiedInputs.add(new ByteArrayWrapper(in.getHashLow()));
+        }
+        blockWrapper.setVerified(ecKeys, verifiedInputs, invalid);
+    }
+
+    /** verified不为空时使用其缓存的验证结果 只验证剩余的input */
+    private boolean canUseInput(Block block, BlockWrapper verified) {
+        if (verified != null && verified.isInvalid()) {
+            return false;
+        }
+        List<Address> input = block.getInputs();
         if (input == null || input.size() == 0) {
             return true;
         }
+        List<ECKey> ecKeys = null;
         for (Address in : input) {
-            boolean canUse = false;
-            // 获取签名与hash
-            Block inBlock = blockStore.getBlockByHash(in.getHashLow(), true);
-            byte[] subdata = inBlock.getSubRawData(inBlock.getOutsigIndex() - 2);
-
-            ECKey.ECDSASignature sig = inBlock.getOutsig();
-
-            for (ECKey ecKey : ecKeys) {
-                byte[] hash = Sha256Hash.hashTwice(BytesUtils.merge(subdata, ecKey.getPubKeybyCompress()));
-                if (ecKey.verify(hash, sig)) {
-                    canUse = true;
-                }
+            if (verified != null && verified.isInputVerified(in.getHashLow())) {
+                continue;
             }
-            if (!canUse) {
+            if (ecKeys == null) {
+                ecKeys = verified != null ? verified.getVerifiedKeys() : block.verifiedKeys();
+            }
+            Block inBlock = blockStore.getBlockByHash(in.getHashLow(), true);
+            if (!canUseInput(inBlock, ecKeys)) {
                 return false;
             }
         }
         return true;
     }
 
-    public boolean checkMineAndAdd(Block block) {
+    /** input区块的输出签名是否由其中某个key签出 */
+    private boolean canUseInput(Block inBlock, List<ECKey> ecKeys) {
+        // 获取签名与hash
+        MessageDigest digest = inBlock.signatureDigest(inBlock.getOutsigIndex() - 2);
+        ECKey.ECDSASignature sig = inBlock.getOutsig();
+        List<SignatureVerifier.Check> checks = new ArrayList<>(ecKeys.size());
+        for (ECKey ecKey : ecKeys) {
+            checks.add(new SignatureVerifier.Check(
+                    Block.signatureHash(digest, ecKey.getPubKeybyCompress()), sig, ecKey));
+        }
+        return SignatureVerifier.verifyAny(checks);
+    }
+
+    /** <压缩公钥, 钱包中的编号> 钱包增加密钥时重建 */
+    private Map<ByteArrayWrapper, Integer> getWalletKeyIndex() {
         List<key_internal_item> ourkeys = wallet.getKey_internal();
+        Map<ByteArrayWrapper, Integer> index = walletKeyIndex;
+        if (index == null || index.size() != ourkeys.size()) {
+            index = new HashMap<>();
+            for (int i = 0; i < ourkeys.size(); i++) {
+                index.put(new ByteArrayWrapper(ourkeys.get(i).ecKey.getPubKeybyCompress()), i);
+            }
+            walletKeyIndex = index;
+        }
+        return index;
+    }
+
+    /** 用钱包中第keyIndex个key验证输出签名 */
+    private boolean isSignedBy(Block block, MessageDigest digest, ECKey.ECDSASignature signature, int keyIndex) {
+        ECKey ecKey = wallet.getKey_internal().get(keyIndex).ecKey;
+        byte[] hash = Block.signatureHash(digest, ecKey.getPubKeybyCompress());
+        if (ecKey.verify(hash, signature)) {
+            log.debug("Validate Success");
+            addNewAccount(block, keyIndex);
+            return true;
+        }
+        return false;
+    }
+
+    public boolean checkMineAndAdd(Block block) {
         // 输出签名只有一个
         ECKey.ECDSASignature signature = block.getOutsig();
-        // 遍历所有key
-        for (int i = 0; i < ourkeys.size(); i++) {
-            ECKey ecKey = ourkeys.get(i).ecKey;
-            byte[] digest = BytesUtils.merge(
-                    block.getSubRawData(block.getOutsigIndex() - 2), ecKey.getPubKeybyCompress());
-            byte[] hash = Sha256Hash.hashTwice(digest);
-            if (ecKey.verify(hash, signature)) {
-                log.debug("Validate Success");
-                addNewAccount(block, i);
+        MessageDigest digest = block.signatureDigest(block.getOutsigIndex() - 2);
+        // 签名的消息包含签名者的公钥 无法从签名恢复公钥. 输出签名的key要么在区块的公钥字段中 要么是不写入区块的默认key
+        // 所以只需在钱包索引中查找这些key 与钱包大小无关
+        Map<ByteArrayWrapper, Integer> index = getWalletKeyIndex();
+        Set<Integer> tried = new HashSet<>();
+        List<ECKey> candidates = new ArrayList<>(block.getPubKeys());
+        candidates.add(wallet.getDefKey().ecKey);
+        for (ECKey key : candidates) {
+            Integer i = index.get(new ByteArrayWrapper(key.getPubKeybyCompress()));
+            if (i != null && tried.add(i) && isSignedBy(block, digest, signature, i)) {
                 return true;
             }
         }
@@ -802,7 +1172,11 @@ public class BlockchainImpl implements Blockchain {
     public void addNewAccount(Block block, int keyIndex) {
         if (!block.isSaved()) {
             log.debug("Add into Mem,size:" + MemAccount.size());
-            MemAccount.put(new ByteArrayWrapper(block.getHash()), keyIndex);
+            ByteArrayWrapper key = new ByteArrayWrapper(block.getHash());
+            if (importUndo != null) {
+                importUndo.touchAccount(key);
+            }
+            MemAccount.put(key, keyIndex);
         } else {
             log.debug("Add into storage");
             accountStore.addNewAccount(block, keyIndex);
@@ -811,7 +1185,7 @@ public class BlockchainImpl implements Blockchain {
 
     public void removeAccount(Block block) {
         if (!block.isSaved) {
-            MemAccount.remove(new ByteArrayWrapper(block.getHash()));
+            removeMemAccount(new ByteArrayWrapper(block.getHash()));
         } else {
             accountStore.removeAccount(block);
         }
@@ -845,19 +1219,9 @@ public class BlockchainImpl implements Blockchain {
     }
 
     /** 为区块block添加amount金额 * */
-    private void acceptAmount(Block block, long amount) {
-        block.setAmount(block.getAmount() + amount);
-        blockStore.updateBlockInfo(BlockStore.BLOCK_AMOUNT, block);
-        if ((block.flags & BI_OURS) != 0) {
-            log.debug("====Our balance add new amount:" + amount + "====,获取到amount的hash【{}】",
-                    Hex.toHexString(block.getHashLow()));
-            accountStore.updateGBanlance(amount);
-        }
-    }
-
     /** 判断是否已经接收过区块 * */
     public boolean isExist(byte[] hashlow) {
-        if (MemOrphanPool.containsKey(new ByteArrayWrapper(hashlow)) || blockStore.hasBlock(hashlow)) {
+        if (getExtraBlock(hashlow) != null || blockStore.hasBlock(hashlow)) {
             return true;
         }
         return false;
@@ -869,7 +1233,7 @@ public class BlockchainImpl implements Blockchain {
 
     @Override
     public List<Block> listMainBlocks(int count) {
-        Block temp = getBlockByHash(top_main_chain, false);
+        Block temp = getBlockByHash(stats.getTopMainChain(), false);
         List<Block> res = new ArrayList<>();
         while (count > 0) {
             if (temp == null) {
@@ -894,7 +1258,7 @@ public class BlockchainImpl implements Blockchain {
 
     @Override
     public List<Block> listMinedBlocks(int count) {
-        Block temp = getBlockByHash(top_main_chain, false);
+        Block temp = getBlockByHash(stats.getTopMainChain(), false);
         List<Block> res = new ArrayList<>();
         while (count > 0) {
             if (temp == null) {
@@ -937,7 +1301,164 @@ public class BlockchainImpl implements Blockchain {
 
     @Override
     public Block getExtraBlock(byte[] hashlow) {
-        return MemOrphanPool.getOrDefault(new ByteArrayWrapper(hashlow), null);
+        synchronized (MemOrphanPool) {
+            return MemOrphanPool.get(new ByteArrayWrapper(hashlow));
+        }
+    }
+
+    private void removeMemAccount(ByteArrayWrapper key) {
+        if (importUndo != null) {
+            importUndo.touchAccount(key);
+        }
+        MemAccount.remove(key);
+    }
+
+    private void putExtra(Block block) {
+        ByteArrayWrapper key = new ByteArrayWrapper(block.getHashLow());
+        Block prev;
+        Long prevSeq;
+        synchronized (MemOrphanPool) {
+            prev = MemOrphanPool.put(key, block);
+            prevSeq = extraSeq.put(key, nextExtraSeq++);
+        }
+        if (importUndo != null) {
+            importUndo.extraChanged(key, prev, prevSeq);
+        }
+    }
+
+    private Block removeExtra(ByteArrayWrapper key) {
+        Block removed;
+        Long seq;
+        synchronized (MemOrphanPool) {
+            removed = MemOrphanPool.remove(key);
+            seq = extraSeq.remove(key);
+        }
+        if (removed != null && importUndo != null) {
+            importUndo.touchBlock(removed);
+            importUndo.extraChanged(key, removed, seq);
+        }
+        return removed;
+    }
+
+    /**
+     * 导入前的内存状态. 数据库的写入在批次中回滚 这里记录connect在内存中修改的部分: 主链与pretop 区块计数
+     * MemAccount MemOrphanPool 以及被修改的extra区块 只在导入线程上使用
+     */
+    private class ImportUndo {
+        private final BigInteger topDiff = BlockchainImpl.this.topDiff;
+        private final byte[] topMainChain = top_main_chain;
+        private final byte[] pretop = BlockchainImpl.this.pretop;
+        private final BigInteger pretopDiff = BlockchainImpl.this.pretopDiff;
+        private final long nblocks = netStatus.getNblocks();
+        private final long nmain = netStatus.getNmain();
+        /** <key, 修改前的值> null表示原来不存在 */
+        private final Map<ByteArrayWrapper, Integer> accounts = new HashMap<>();
+        /** MemOrphanPool的修改 按顺序记录 */
+        private final Deque<Object[]> extras = new ArrayDeque<>();
+        /** 区块对象与修改前的状态 */
+        private final Map<Block, BlockState> blocks = new IdentityHashMap<>();
+
+        ImportUndo(Block block) {
+            touchBlock(block);
+        }
+
+        void touchBlock(Block block) {
+            blocks.computeIfAbsent(block, BlockState::new);
+        }
+
+        void touchAccount(ByteArrayWrapper key) {
+            if (!accounts.containsKey(key)) {
+                accounts.put(key, MemAccount.get(key));
+            }
+        }
+
+        void extraChanged(ByteArrayWrapper key, Block prev, Long prevSeq) {
+            extras.push(new Object[] { key, prev, prevSeq });
+        }
+
+        void restore() {
+            BlockchainImpl.this.topDiff = topDiff;
+            top_main_chain = topMainChain;
+            BlockchainImpl.this.pretop = pretop;
+            BlockchainImpl.this.pretopDiff = pretopDiff;
+            netStatus.setNblocks(nblocks);
+            netStatus.setNmain(nmain);
+            for (Map.Entry<ByteArrayWrapper, Integer> entry : accounts.entrySet()) {
+                if (entry.getValue() == null) {
+                    MemAccount.remove(entry.getKey());
+                } else {
+                    MemAccount.put(entry.getKey(), entry.getValue());
+                }
+            }
+            for (BlockState state : blocks.values()) {
+                state.restore();
+            }
+            restoreExtras();
+        }
+
+        private void restoreExtras() {
+            if (extras.isEmpty()) {
+                return;
+            }
+            synchronized (MemOrphanPool) {
+                while (!extras.isEmpty()) {
+                    Object[] change = extras.pop();
+                    ByteArrayWrapper key = (ByteArrayWrapper) change[0];
+                    MemOrphanPool.remove(key);
+                    extraSeq.remove(key);
+                    if (change[1] != null) {
+                        MemOrphanPool.put(key, (Block) change[1]);
+                        extraSeq.put(key, (Long) change[2]);
+                    }
+                }
+                // 恢复的区块按加入序号放回原来的位置
+                List<Map.Entry<ByteArrayWrapper, Block>> entries = new ArrayList<>(MemOrphanPool.entrySet());
+                entries.sort(Comparator.comparingLong(e -> extraSeq.get(e.getKey())));
+                MemOrphanPool.clear();
+                for (Map.Entry<ByteArrayWrapper, Block> entry : entries) {
+                    MemOrphanPool.put(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+    }
+
+    /** 区块对象上导入中可能被修改的字段 */
+    private static class BlockState {
+        private final Block block;
+        private final int flags;
+        private final boolean isSaved;
+        private final long amount;
+        private final Address ref;
+        private final BigInteger difficulty;
+        private final BigInteger prevEpochDiff;
+        private final Address maxDifflink;
+        private final boolean pretopCandidate;
+        private final BigInteger pretopCandidateDiff;
+
+        BlockState(Block block) {
+            this.block = block;
+            this.flags = block.flags;
+            this.isSaved = block.isSaved;
+            this.amount = block.getAmount();
+            this.ref = block.getRef();
+            this.difficulty = block.getDifficulty();
+            this.prevEpochDiff = block.getPrevEpochDiff();
+            this.maxDifflink = block.getMaxDifflink();
+            this.pretopCandidate = block.isPretopCandidate();
+            this.pretopCandidateDiff = block.getPretopCandidateDiff();
+        }
+
+        void restore() {
+            block.flags = flags;
+            block.isSaved = isSaved;
+            block.setAmount(amount);
+            block.setRef(ref);
+            block.setDifficulty(difficulty);
+            block.setPrevEpochDiff(prevEpochDiff);
+            block.setMaxDifflink(maxDifflink);
+            block.setPretopCandidate(pretopCandidate);
+            block.setPretopCandidateDiff(pretopCandidateDiff);
+        }
     }
 
     enum OrphanRemoveActions {
@@ -0,0 +1,64 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2030 The XdagJ Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.xdag.core;
+
+import java.math.BigInteger;
+
+import lombok.Getter;
+
+/**
+ * 区块链状态的不可变快照. 每次导入结束后由写线程发布 读取时不需要stateLock.
+ */
+@Getter
+public final class ChainStats {
+    private final BigInteger topDiff;
+    /** 可能是最大难度的区块hashlow */
+    private final byte[] topMainChain;
+    private final byte[] pretop;
+    private final BigInteger pretopDiff;
+    private final long mainNumber;
+    private final long blockNumber;
+    private final long orphanSize;
+    private final long extraSize;
+
+    public ChainStats(BigInteger topDiff, byte[] topMainChain, byte[] pretop, BigInteger pretopDiff,
+            long mainNumber, long blockNumber, long orphanSize, long extraSize) {
+        this.topDiff = topDiff;
+        this.topMainChain = topMainChain == null ? null : topMainChain.clone();
+        this.pretop = pretop == null ? null : pretop.clone();
+        this.pretopDiff = pretopDiff;
+        this.mainNumber = mainNumber;
+        this.blockNumber = blockNumber;
+        this.orphanSize = orphanSize;
+        this.extraSize = extraSize;
+    }
+
+    public byte[] getTopMainChain() {
+        return topMainChain == null ? null : topMainChain.clone();
+    }
+
+    public byte[] getPretop() {
+        return pretop == null ? null : pretop.clone();
+    }
+}
@@ -25,40 +25,45 @@ package io.xdag.core;
 
 import static io.xdag.core.XdagField.FieldType.fromByte;
 
+import java.security.MessageDigest;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
 import org.spongycastle.util.Arrays;
 
+import io.xdag.crypto.Sha256Hash;
 import io.xdag.utils.BytesUtils;
 
+/**
+ * 512字节的区块数据. 从字节构造时只保存数组 字段按偏移读取 需要XdagField时才创建不复制数据的视图.
+ */
 public class XdagBlock {
     public static final int XDAG_BLOCK_FIELDS = 16;
     public static final int XDAG_BLOCK_SIZE = 512;
+    public static final int XDAG_FIELD_SIZE = 32;
 
     /** data 以添加签名 */
     private byte[] data;
 
-    private XdagField[] fields;
+    private volatile XdagField[] fields;
+    /** 字段是data上的视图 */
+    private final boolean raw;
+    /** 每个签名位置的消息前缀 只读 使用时clone. 区块缓存中的对象被多个线程共享 通过原子数组发布 */
+    private final AtomicReferenceArray<MessageDigest> signatureDigests = new AtomicReferenceArray<>(XDAG_BLOCK_FIELDS);
+    private static final byte[] ZERO_BLOCK = new byte[XDAG_BLOCK_SIZE];
 
     public XdagBlock() {
         fields = new XdagField[XDAG_BLOCK_FIELDS];
+        raw = false;
     }
 
     public XdagBlock(XdagField[] fields) {
         this.fields = fields;
+        raw = false;
     }
 
     public XdagBlock(byte[] data) {
         this.data = data;
-        if (data != null && data.length == 512) {
-            fields = new XdagField[XDAG_BLOCK_FIELDS];
-            for (int i = 0; i < XDAG_BLOCK_FIELDS; i++) {
-                byte[] fieldBytes = new byte[32];
-                System.arraycopy(data, i * 32, fieldBytes, 0, 32);
-                fields[i] = new XdagField(fieldBytes);
-            }
-            for (int i = 0; i < XDAG_BLOCK_FIELDS; i++) {
-                fields[i].setType(fromByte(getMsgcode(i)));
-            }
-        }
+        raw = data != null && data.length == XDAG_BLOCK_SIZE;
     }
 
     /**
@@ -73,11 +78,33 @@ public class XdagBlock {
         return (byte) (type >> (n << 2) & 0xf);
     }
 
+    public XdagField.FieldType getFieldType(int n) {
+        return fromByte(getMsgcode(n));
+    }
+
+    /** 第n个字段在data中的偏移 */
+    public static int fieldOffset(int n) {
+        return n * XDAG_FIELD_SIZE;
+    }
+
+    /** 第n个字段内pos处的小端long */
+    public long getLong(int n, int pos) {
+        return BytesUtils.bytesToLong(getData(), fieldOffset(n) + pos, true);
+    }
+
     public XdagField[] getFields() {
-        if (this.fields == null) {
+        XdagField[] res = this.fields;
+        if (res == null && raw) {
+            res = new XdagField[XDAG_BLOCK_FIELDS];
+            for (int i = 0; i < XDAG_BLOCK_FIELDS; i++) {
+                res[i] = new XdagField(data, fieldOffset(i), getFieldType(i));
+            }
+            this.fields = res;
+        }
+        if (res == null) {
             throw new Error("no fields");
         } else {
-            return this.fields;
+            return res;
         }
     }
 
@@ -86,14 +113,49 @@ public class XdagBlock {
         return fields[number];
     }
 
+    /** 所有字段的sum */
+    public long getSum() {
+        long sum = 0;
+        if (raw) {
+            for (int i = 0; i < XDAG_BLOCK_SIZE; i += 8) {
+                sum += BytesUtils.bytesToLong(data, i, true);
+            }
+            return sum;
+        }
+        for (int i = 0; i < XDAG_BLOCK_FIELDS; i++) {
+            sum += getField(i).getSum();
+        }
+        return sum;
+    }
+
+    /**
+     * 签名消息的前缀: 前length+1个字段 其余字段置0. 原始数据不变 所以每个签名位置只计算一次
+     */
+    public MessageDigest getSignatureDigest(int length) {
+        MessageDigest digest = raw ? signatureDigests.get(length) : null;
+        if (digest == null) {
+            byte[] data = getData();
+            int size = (length + 1) * XDAG_FIELD_SIZE;
+            digest = Sha256Hash.newDigest();
+            digest.update(data, 0, size);
+            digest.update(ZERO_BLOCK, 0, XDAG_BLOCK_SIZE - size);
+            // 其他线程先写入时用它的 保证同一位置只发布一个对象
+            if (raw && !signatureDigests.compareAndSet(length, null, digest)) {
+                digest = signatureDigests.get(length);
+            }
+        }
+        return digest;
+    }
+
     public byte[] getData() {
         if (this.data == null) {
-            this.data = new byte[512];
+            byte[] data = new byte[512];
             // todo:transfer fields to data
             for (int i = 0; i < XDAG_BLOCK_FIELDS; i++) {
                 int index = i * 32;
-                System.arraycopy(Arrays.reverse(fields[i].getData()), 0, this.data, index, 32);
+                System.arraycopy(Arrays.reverse(fields[i].getData()), 0, data, index, 32);
             }
+            this.data = data;
         }
         return data;
     }
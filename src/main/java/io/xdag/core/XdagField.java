@@ -31,14 +31,17 @@ import io.xdag.utils.BytesUtils;
 import lombok.Getter;
 import lombok.Setter;
 
+/**
+ * 32字节字段. 区块中的字段只是区块数据上的偏移 不复制数据.
+ */
 public class XdagField {
     @Getter
     @Setter
     private FieldType type;
-    
-    @Getter
-    @Setter
-    private byte[] data;
+
+    /** 字段所在的数组与偏移 */
+    private byte[] buf;
+    private int offset;
 
     @Setter
     private long sum;
@@ -47,17 +50,44 @@ public class XdagField {
         ByteBuffer buffer = ByteBuffer.allocate(32);
         buffer.position(32 - data.length);
         buffer.put(data);
-        this.data = buffer.array();
+        this.buf = buffer.array();
     }
 
     public XdagField() {
-        this.data = new byte[32];
+        this.buf = new byte[32];
+    }
+
+    /** buf中offset开始的32字节的视图 */
+    XdagField(byte[] buf, int offset, FieldType type) {
+        this.buf = buf;
+        this.offset = offset;
+        this.type = type;
+    }
+
+    /** 字段数据 视图字段返回一份拷贝 */
+    public byte[] getData() {
+        if (offset == 0 && buf.length == 32) {
+            return buf;
+        }
+        byte[] data = new byte[32];
+        System.arraycopy(buf, offset, data, 0, 32);
+        return data;
+    }
+
+    public void setData(byte[] data) {
+        this.buf = data;
+        this.offset = 0;
+    }
+
+    /** 字段内pos处的小端long */
+    public long getLong(int pos) {
+        return BytesUtils.bytesToLong(buf, offset + pos, true);
     }
 
     public long getSum() {
         if (sum == 0) {
             for (int i = 0; i < 4; i++) {
-                sum += BytesUtils.bytesToLong(getData(), i * 8, true);
+                sum += getLong(i * 8);
             }
             return sum;
         } else {
@@ -119,6 +119,7 @@ public class ECKey implements Serializable {
 
     // Transient because it's calculated on demand.
     private transient byte[] pubKeyHash;
+    private transient volatile byte[] pubKeyCompressed;
 
     private byte[] nodeId;
 
@@ -785,8 +786,14 @@ public class ECKey implements Serializable {
         return pub.getEncoded(/* compressed */ false);
     }
 
+    /** 压缩公钥 计算一次后缓存 调用者不能修改返回的数组 */
     public byte[] getPubKeybyCompress() {
-        return pub.getEncoded(true);
+        byte[] compressed = pubKeyCompressed;
+        if (compressed == null) {
+            compressed = pub.getEncoded(true);
+            pubKeyCompressed = compressed;
+        }
+        return compressed;
     }
 
     /**
@@ -932,7 +939,15 @@ public class ECKey implements Serializable {
      * @return -
      */
     public boolean verify(byte[] sigHash, ECDSASignature signature) {
-        return ECKey.verify(sigHash, signature, getPubKey());
+        // 直接使用公钥点 不重新编码解码
+        ECDSASigner signer = new ECDSASigner();
+        signer.init(false, new ECPublicKeyParameters(pub, CURVE));
+        try {
+            return signer.verifySignature(sigHash, signature.r, signature.s);
+        } catch (NullPointerException npe) {
+            log.error("Caught NPE inside bouncy castle", npe);
+            return false;
+        }
     }
 
     /**
@@ -0,0 +1,144 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2030 The XdagJ Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.xdag.crypto;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnull;
+
+import org.spongycastle.math.ec.ECPoint;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import io.xdag.utils.ByteArrayWrapper;
+import io.xdag.utils.BytesUtils;
+
+/**
+ * 签名验证. 缓存压缩公钥解压后的点 多个互不相关的(hash, 签名, 公钥)可以在线程池中并行验证.
+ */
+public class SignatureVerifier {
+    /** 少于这个数量时在当前线程验证 */
+    private static final int PARALLEL_THRESHOLD = 4;
+    private static final int KEY_CACHE_SIZE = 65536;
+
+    private static final ThreadFactory factory = new ThreadFactory() {
+        private final AtomicInteger cnt = new AtomicInteger(0);
+
+        @Override
+        public Thread newThread(@Nonnull Runnable r) {
+            Thread thread = new Thread(r, "verify-" + cnt.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    };
+    private static final ExecutorService executor = Executors
+            .newFixedThreadPool(Runtime.getRuntime().availableProcessors(), factory);
+
+    /** <压缩公钥, key> */
+    private static final Cache<ByteArrayWrapper, ECKey> keyCache = Caffeine.newBuilder()
+            .maximumSize(KEY_CACHE_SIZE)
+            .build();
+
+    private SignatureVerifier() {
+    }
+
+    /** 一次验证 结果写入valid */
+    public static class Check {
+        final byte[] hash;
+        final ECKey.ECDSASignature signature;
+        final ECKey key;
+        boolean valid;
+
+        public Check(byte[] hash, ECKey.ECDSASignature signature, ECKey key) {
+            this.hash = hash;
+            this.signature = signature;
+            this.key = key;
+        }
+
+        public ECKey getKey() {
+            return key;
+        }
+
+        public boolean isValid() {
+            return valid;
+        }
+
+        void run() {
+            valid = signature != null && key.verify(hash, signature);
+        }
+    }
+
+    /** 区块公钥字段(x坐标与y的奇偶)对应的key 相同的公钥只解压一次 */
+    public static ECKey getPublicKey(byte[] x, boolean yBit) {
+        byte[] compressed = BytesUtils.merge((byte) (yBit ? 0x03 : 0x02), x);
+        return keyCache.get(new ByteArrayWrapper(compressed), k -> {
+            ECPoint point = ECKey.decompressKey(new BigInteger(1, x), yBit);
+            return ECKey.fromPublicOnly(point);
+        });
+    }
+
+    /** 验证所有check 数量多时分给线程池 */
+    public static void verify(List<Check> checks) {
+        if (checks.size() < PARALLEL_THRESHOLD) {
+            for (Check check : checks) {
+                check.run();
+            }
+            return;
+        }
+        List<Future<?>> futures = new ArrayList<>(checks.size());
+        for (Check check : checks) {
+            futures.add(executor.submit(check::run));
+        }
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /** 是否有任一check通过 */
+    public static boolean verifyAny(List<Check> checks) {
+        verify(checks);
+        for (Check check : checks) {
+            if (check.isValid()) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
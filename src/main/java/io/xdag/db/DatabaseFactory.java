@@ -29,5 +29,17 @@ public interface DatabaseFactory {
     /** Close all opened resources. */
     void close();
 
-    SimpleFileStore getSumsDB();
+    FileSource getSumsDB();
+
+    /** Open a write batch on every database for the current thread. */
+    void beginBatch();
+
+    /** Commit the write batches opened by beginBatch. */
+    void commitBatch();
+
+    /** Drop the write batches opened by beginBatch. */
+    void rollbackBatch();
+
+    /** Finish a commit that was interrupted by a crash. Call before the stores read the databases. */
+    void recover();
 }
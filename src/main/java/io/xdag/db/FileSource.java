@@ -29,5 +29,12 @@ public interface FileSource {
 
     void saveBlockSums(Block block);
 
+    /** 写入合并后的sums增量 每个sums桶只写一次 */
+    void saveSums(SumsBatch batch);
+
     byte[] loadSum(long starttime, long endtime);
+
+    void reset();
+
+    void close();
 }
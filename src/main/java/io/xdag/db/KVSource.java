@@ -26,6 +26,7 @@ package io.xdag.db;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.BiPredicate;
 
 public interface KVSource<K, V> {
 
@@ -55,5 +56,25 @@ public interface KVSource<K, V> {
 
     List<V> prefixValueLookup(byte[] key, int prefixBytes);
 
+    /**
+     * Walk every entry whose key starts with the given prefix in key order, stopping at the first
+     * key past the prefix. The visitor returns false to end the scan early, so callers can
+     * consume matches without building a list.
+     */
+    void prefixScan(byte[] prefix, BiPredicate<K, V> visitor);
+
     void updateBatch(Map<K, V> rows);
+
+    /**
+     * Start buffering the writes of the current thread in a write batch. Reads from the same
+     * thread see the buffered writes, other threads only see them after commitBatch. Calls may
+     * nest, only the outermost commit writes.
+     */
+    void beginBatch();
+
+    /** Atomically write the batch opened by beginBatch. */
+    void commitBatch();
+
+    /** Drop the batch opened by beginBatch without writing it. */
+    void rollbackBatch();
 }
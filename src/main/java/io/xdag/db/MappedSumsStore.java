@@ -0,0 +1,255 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2030 The XdagJ Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.xdag.db;
+
+import io.xdag.core.Block;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Sums hierarchy kept in memory mapped files instead of one sums.dat per directory. sums.top holds
+ * the level 0 bucket followed by the 256 level 1 buckets, and every level 1 prefix gets a
+ * sums-XX.map segment holding its 256 level 2 buckets followed by its 65536 level 3 buckets. Segment
+ * files are sparse, so only touched buckets take disk space. Lookups only read the mapping, updates
+ * come from the single sums writer thread of BlockStore.
+ */
+@Slf4j
+public class MappedSumsStore implements FileSource {
+    public static final int BUCKET_SIZE = SumsBatch.SLOTS * 16;
+    private static final long TOP_SIZE = (long) (1 + SumsBatch.SLOTS) * BUCKET_SIZE;
+    private static final long SEGMENT_SIZE = (long) (SumsBatch.SLOTS + SumsBatch.SLOTS * SumsBatch.SLOTS)
+            * BUCKET_SIZE;
+
+    private final File dir;
+    private volatile MappedByteBuffer top;
+    /** level 1 prefix -> level 2与level 3的映射 未创建时为null */
+    private final AtomicReferenceArray<MappedByteBuffer> segments = new AtomicReferenceArray<>(SumsBatch.SLOTS);
+
+    public MappedSumsStore(String storePath) {
+        dir = new File(storePath + "/msums/");
+        boolean exists = new File(dir, "sums.top").exists();
+        File legacy = new File(storePath + "/sums/");
+        open();
+        if (!exists && legacy.isDirectory()) {
+            log.info("Convert sums from {} to {}", legacy, dir);
+            importLegacy(legacy);
+        }
+    }
+
+    private synchronized void open() {
+        if (!dir.exists()) {
+            dir.mkdirs();
+        }
+        top = map(new File(dir, "sums.top"), TOP_SIZE);
+        for (File file : segmentFiles()) {
+            int prefix = Integer.parseInt(file.getName().substring(5, 7), 16);
+            segments.set(prefix, map(file, SEGMENT_SIZE));
+        }
+    }
+
+    @Override
+    public void saveBlockSums(Block block) {
+        SumsBatch batch = new SumsBatch();
+        batch.add(block);
+        saveSums(batch);
+    }
+
+    @Override
+    public void saveSums(SumsBatch batch) {
+        for (Map.Entry<Long, long[]> entry : batch.getBuckets().entrySet()) {
+            long bucket = entry.getKey();
+            MappedByteBuffer buffer = buffer(bucket, true);
+            int offset = offset(bucket);
+            long[] deltas = entry.getValue();
+            for (int i = 0; i < deltas.length; i++) {
+                if (deltas[i] != 0) {
+                    int index = offset + i * 8;
+                    buffer.putLong(index, buffer.getLong(index) + deltas[i]);
+                }
+            }
+        }
+    }
+
+    @Override
+    public byte[] loadSum(long starttime, long endtime) {
+        endtime -= starttime;
+        if (endtime == 0) {
+            return null;
+        }
+        int level = SimpleFileStore.sumsLevel(endtime);
+        long bucket = SimpleFileStore.sumsBucket(level, starttime);
+        MappedByteBuffer buffer = buffer(bucket, false);
+        if (buffer == null) {
+            return new byte[256];
+        }
+        byte[] buf = new byte[BUCKET_SIZE];
+        ByteBuffer view = buffer.duplicate();
+        view.position(offset(bucket));
+        view.get(buf);
+        return SimpleFileStore.foldSums(buf, level, starttime);
+    }
+
+    /** 桶所在的映射 level 0/1在sums.top 其余在level 1前缀对应的段 */
+    private MappedByteBuffer buffer(long bucket, boolean create) {
+        int level = SumsBatch.level(bucket);
+        if (level < 2) {
+            return top;
+        }
+        int segment = (int) (SumsBatch.prefix(bucket) >> (8 * (level - 1))) & 0xff;
+        MappedByteBuffer buffer = segments.get(segment);
+        if (buffer == null && create) {
+            buffer = createSegment(segment);
+        }
+        return buffer;
+    }
+
+    private synchronized MappedByteBuffer createSegment(int segment) {
+        MappedByteBuffer buffer = segments.get(segment);
+        if (buffer == null) {
+            buffer = map(new File(dir, String.format("sums-%02x.map", segment)), SEGMENT_SIZE);
+            segments.set(segment, buffer);
+        }
+        return buffer;
+    }
+
+    /** 桶在映射中的字节偏移 */
+    static int offset(long bucket) {
+        int level = SumsBatch.level(bucket);
+        long prefix = SumsBatch.prefix(bucket);
+        switch (level) {
+        case 0:
+            return 0;
+        case 1:
+            return (int) (1 + prefix) * BUCKET_SIZE;
+        case 2:
+            return (int) (prefix & 0xff) * BUCKET_SIZE;
+        default:
+            return (int) (SumsBatch.SLOTS + (prefix & 0xffff)) * BUCKET_SIZE;
+        }
+    }
+
+    private static MappedByteBuffer map(File file, long size) {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw");
+                FileChannel channel = raf.getChannel()) {
+            if (raf.length() < size) {
+                raf.setLength(size);
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            return buffer;
+        } catch (IOException e) {
+            throw new RuntimeException("map sums file " + file + " failed", e);
+        }
+    }
+
+    private File[] segmentFiles() {
+        File[] files = dir.listFiles((d, name) -> name.matches("sums-[0-9a-f]{2}\\.map"));
+        return files == null ? new File[0] : files;
+    }
+
+    /** 把sums目录中的sums.dat按桶拷贝进映射 */
+    public void importLegacy(File legacy) {
+        importLegacy(legacy, 0, 0);
+        force();
+    }
+
+    private void importLegacy(File directory, int level, long prefix) {
+        File sums = new File(directory, "sums.dat");
+        if (sums.isFile()) {
+            try {
+                byte[] data = Files.readAllBytes(sums.toPath());
+                long bucket = ((long) level << 56) | prefix;
+                ByteBuffer view = buffer(bucket, true).duplicate();
+                view.position(offset(bucket));
+                view.put(data, 0, Math.min(data.length, BUCKET_SIZE));
+            } catch (IOException e) {
+                throw new RuntimeException("read " + sums + " failed", e);
+            }
+        }
+        if (level >= SumsBatch.LEVELS - 1) {
+            return;
+        }
+        File[] children = directory.listFiles(f -> f.isDirectory() && f.getName().matches("[0-9a-f]{2}"));
+        if (children == null) {
+            return;
+        }
+        for (File child : children) {
+            importLegacy(child, level + 1, (prefix << 8) | Integer.parseInt(child.getName(), 16));
+        }
+    }
+
+    private void force() {
+        top.force();
+        for (int i = 0; i < segments.length(); i++) {
+            MappedByteBuffer buffer = segments.get(i);
+            if (buffer != null) {
+                buffer.force();
+            }
+        }
+    }
+
+    /** 映射在GC时释放 删除文件后重新映射 */
+    @Override
+    public synchronized void reset() {
+        for (int i = 0; i < segments.length(); i++) {
+            segments.set(i, null);
+        }
+        for (File file : segmentFiles()) {
+            file.delete();
+        }
+        new File(dir, "sums.top").delete();
+        open();
+    }
+
+    @Override
+    public void close() {
+        force();
+    }
+
+    /** 离线转换 参数为storeDir 即sums目录的上级目录 */
+    public static void main(String[] args) {
+        if (args.length != 1) {
+            System.out.println("Usage: MappedSumsStore <storeDir>");
+            return;
+        }
+        File legacy = new File(args[0] + "/sums/");
+        if (!legacy.isDirectory()) {
+            System.out.println("No sums directory under " + args[0]);
+            return;
+        }
+        MappedSumsStore store = new MappedSumsStore(args[0]);
+        store.reset();
+        store.importLegacy(legacy);
+        store.close();
+    }
+}
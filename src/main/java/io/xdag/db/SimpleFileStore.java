@@ -28,16 +28,13 @@ import io.xdag.utils.BytesUtils;
 import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Map;
 import org.spongycastle.util.encoders.Hex;
 
 public class SimpleFileStore implements FileSource {
 
-    BufferedInputStream reader;
     private String basicPrefix;
 
     public SimpleFileStore(String storePath) {
@@ -46,152 +43,94 @@ public class SimpleFileStore implements FileSource {
 
     @Override
     public void saveBlockSums(Block block) {
-        long size = 512;
-        long sum = block.getSum();
-        long time = block.getTimestamp();
-        List<String> filename = getFileName(time);
-        for (int i = 0; i < filename.size(); i++) {
-            updateSum(filename.get(i), size, sum, (time >> (40 - 8 * i)) & 0xff);
-        }
+        SumsBatch batch = new SumsBatch();
+        batch.add(block);
+        saveSums(batch);
     }
 
-    public void updateSum(String filename, long size, long sum, long index) {
-        StringBuffer filepath = new StringBuffer(basicPrefix);
-        if (!"".equals(filename)) {
-            filepath.append(filename);
+    @Override
+    public synchronized void saveSums(SumsBatch batch) {
+        for (Map.Entry<Long, long[]> entry : batch.getBuckets().entrySet()) {
+            updateSums(getFileName(entry.getKey()), entry.getValue());
         }
+    }
 
-        File file = new File(String.valueOf(filepath));
-        if (!file.exists()) {
-            file.mkdirs();
+    /** 一次读写将sum与size增量加到sums.dat */
+    private void updateSums(String filename, long[] deltas) {
+        File dir = new File(basicPrefix + filename);
+        if (!dir.exists()) {
+            dir.mkdirs();
         }
-        filepath.append("sums.dat");
-        file = new File(String.valueOf(filepath));
-        RandomAccessFile randomAccessFile = null;
-        if (!file.exists()) {
-            try {
-                file.createNewFile();
-                byte[] sums = new byte[4096];
-                System.arraycopy(BytesUtils.longToBytes(sum, true), 0, sums, (int) (16 * index), 8);
-                System.arraycopy(BytesUtils.longToBytes(size, true), 0, sums, (int) (index * 16 + 8), 8);
-                randomAccessFile = new RandomAccessFile(file, "rw");
-                randomAccessFile.write(sums);
-
-            } catch (IOException e) {
-                e.printStackTrace();
+        byte[] sums = new byte[4096];
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(new File(dir, "sums.dat"), "rw")) {
+            if (randomAccessFile.length() >= sums.length) {
+                randomAccessFile.readFully(sums);
             }
-            return;
-        }
-        // size + sum
-        byte[] data = new byte[16];
-        try {
-            randomAccessFile = new RandomAccessFile(file, "rw");
-            randomAccessFile.seek(16 * index);
-            randomAccessFile.read(data, 0, 16);
-
-            sum += BytesUtils.bytesToLong(data, 0, true);
-            size += BytesUtils.bytesToLong(data, 8, true);
-
-            randomAccessFile.seek(16 * index);
-
-            byte[] res = new byte[16];
-            System.arraycopy(BytesUtils.longToBytes(sum, true), 0, res, 0, 8);
-            System.arraycopy(BytesUtils.longToBytes(size, true), 0, res, 8, 8);
-            randomAccessFile.write(res);
-
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
-        } catch (IOException e) {
-            e.printStackTrace();
-        } finally {
-            if (randomAccessFile != null) {
-                try {
-                    randomAccessFile.close();
-                } catch (IOException e) {
-                    e.printStackTrace();
+            for (int index = 0; index < SumsBatch.SLOTS; index++) {
+                long sum = deltas[index * 2];
+                long size = deltas[index * 2 + 1];
+                if (sum == 0 && size == 0) {
+                    continue;
                 }
+                sum += BytesUtils.bytesToLong(sums, index * 16, true);
+                size += BytesUtils.bytesToLong(sums, index * 16 + 8, true);
+                System.arraycopy(BytesUtils.longToBytes(sum, true), 0, sums, index * 16, 8);
+                System.arraycopy(BytesUtils.longToBytes(size, true), 0, sums, index * 16 + 8, 8);
             }
+            randomAccessFile.seek(0);
+            randomAccessFile.write(sums);
+        } catch (IOException e) {
+            e.printStackTrace();
         }
     }
 
     @Override
     public synchronized byte[] loadSum(long starttime, long endtime) {
-
-        byte[] sums = new byte[256];
-        byte[] buf = new byte[4096];
-        int level;
-        long filedir;
-
-        StringBuffer filename;
         endtime -= starttime;
         // || (endtime & (endtime-1))!=0
         if (endtime == 0) {
             return null;
         }
+        int level = sumsLevel(endtime);
+        File file = new File(basicPrefix + getFileName(sumsBucket(level, starttime)) + "sums.dat");
+        // 判断文件是否存在
+        if (!file.exists()) {
+            return new byte[256];
+        }
+        byte[] buf = new byte[4096];
+        try (BufferedInputStream reader = new BufferedInputStream(new FileInputStream(file))) {
+            reader.read(buf, 0, 4096);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return foldSums(buf, level, starttime);
+    }
 
-        for (level = -6; endtime != 0; level++, endtime >>= 4) {
+    /** 时间跨度对应的请求层级 */
+    static int sumsLevel(long span) {
+        int level;
+        for (level = -6; span != 0; level++, span >>= 4) {
             ;
         }
+        return level;
+    }
 
+    /** 请求层级所读取的sums桶 */
+    static long sumsBucket(int level, long starttime) {
         if (level < 2) {
-            filedir = (starttime) & 0xffffff000000L;
-            long dir1 = (filedir >> 40) & 0xff;
-            long dir2 = (filedir >> 32) & 0xff;
-            long dir3 = (filedir >> 24) & 0xff;
-            filename = new StringBuffer(basicPrefix)
-                    .append(Hex.toHexString(BytesUtils.byteToBytes((byte) dir1, true)))
-                    .append("/")
-                    .append(Hex.toHexString(BytesUtils.byteToBytes((byte) dir2, true)))
-                    .append("/")
-                    .append(Hex.toHexString(BytesUtils.byteToBytes((byte) dir3, true)))
-                    .append("/")
-                    .append("sums.dat");
-
+            return SumsBatch.bucket(3, starttime);
         } else if (level < 4) {
-            filedir = (starttime) & 0xffff00000000L;
-            long dir1 = (filedir >> 40) & 0xff;
-            long dir2 = (filedir >> 32) & 0xff;
-            filename = new StringBuffer(basicPrefix)
-                    .append(Hex.toHexString(BytesUtils.byteToBytes((byte) dir1, true)))
-                    .append("/")
-                    .append(Hex.toHexString(BytesUtils.byteToBytes((byte) dir2, true)))
-                    .append("/")
-                    .append("sums.dat");
-
+            return SumsBatch.bucket(2, starttime);
         } else if (level < 6) {
-            filedir = (starttime) & 0xff0000000000L;
-            long dir1 = (filedir >> 40) & 0xff;
-            filename = new StringBuffer(basicPrefix)
-                    .append(Hex.toHexString(BytesUtils.byteToBytes((byte) dir1, true)))
-                    .append("/")
-                    .append("sums.dat");
+            return SumsBatch.bucket(1, starttime);
         } else {
-            filename = new StringBuffer(basicPrefix).append("sums.dat");
-        }
-
-        File file = new File(String.valueOf(filename));
-        // 判断文件是否存在
-        if (file.exists()) {
-            try {
-                reader = new BufferedInputStream(new FileInputStream(file));
-                reader.read(buf, 0, 4096);
-            } catch (FileNotFoundException e) {
-                e.printStackTrace();
-            } catch (IOException e) {
-                e.printStackTrace();
-            } finally {
-                if (reader != null) {
-                    try {
-                        reader.close();
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-                }
-            }
-        } else {
-            return sums;
+            return SumsBatch.bucket(0, starttime);
         }
+    }
 
+    /** 由sums.dat内容生成256字节的应答 */
+    static byte[] foldSums(byte[] buf, int level, long starttime) {
+        byte[] sums = new byte[256];
         long size = 0;
         long sum = 0;
         if ((level & 1) != 0) {
@@ -211,33 +150,31 @@ public class SimpleFileStore implements FileSource {
             long index = (starttime >> (level + 4) * 4) & 0xf0;
             System.arraycopy(buf, (int) (index * 16), sums, 0, 16 * 16);
         }
-
         return sums;
     }
 
-    public List<String> getFileName(long time) {
-        List<String> file = new ArrayList<>();
-        file.add("");
-        StringBuffer stringBuffer = new StringBuffer(
-                Hex.toHexString(BytesUtils.byteToBytes((byte) ((time >> 40) & 0xff), true)));
-        stringBuffer.append("/");
-        file.add(String.valueOf(stringBuffer));
-        stringBuffer.append(
-                Hex.toHexString(BytesUtils.byteToBytes((byte) ((time >> 32) & 0xff), true)));
-        stringBuffer.append("/");
-        file.add(String.valueOf(stringBuffer));
-        stringBuffer.append(
-                Hex.toHexString(BytesUtils.byteToBytes((byte) ((time >> 24) & 0xff), true)));
-        stringBuffer.append("/");
-        file.add(String.valueOf(stringBuffer));
-        return file;
+    /** sums桶对应的目录 如 01/78/ */
+    public String getFileName(long bucket) {
+        int level = SumsBatch.level(bucket);
+        long prefix = SumsBatch.prefix(bucket);
+        StringBuilder filename = new StringBuilder();
+        for (int i = level - 1; i >= 0; i--) {
+            filename.append(Hex.toHexString(BytesUtils.byteToBytes((byte) ((prefix >> (8 * i)) & 0xff), true)))
+                    .append("/");
+        }
+        return filename.toString();
     }
 
+    @Override
     public void reset() {
         File file = new File(basicPrefix);
         delFile(file);
     }
 
+    @Override
+    public void close() {
+    }
+
     public void delFile(File file) {
         if (!file.exists()) {
             return;
@@ -0,0 +1,92 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2030 The XdagJ Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.xdag.db;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import io.xdag.core.Block;
+
+/**
+ * Sum and size deltas of many blocks, coalesced per sums bucket so a FileSource can apply them
+ * with one write per bucket. A bucket is one sums.dat of the hierarchy: level 0 covers the whole
+ * time range and every level below narrows the time prefix by 8 bits.
+ */
+public class SumsBatch {
+    public static final int LEVELS = 4;
+    public static final int SLOTS = 256;
+
+    /** <bucket, 每个slot的sum与size> */
+    private final Map<Long, long[]> buckets = new HashMap<>();
+    private int blocks;
+
+    public void add(Block block) {
+        add(block.getTimestamp(), block.getSum(), 512);
+    }
+
+    public void add(long time, long sum, long size) {
+        for (int level = 0; level < LEVELS; level++) {
+            long[] deltas = buckets.computeIfAbsent(bucket(level, time), k -> new long[SLOTS * 2]);
+            int slot = slot(level, time);
+            deltas[slot * 2] += sum;
+            deltas[slot * 2 + 1] += size;
+        }
+        blocks++;
+    }
+
+    public Map<Long, long[]> getBuckets() {
+        return buckets;
+    }
+
+    /** number of blocks added */
+    public int getBlocks() {
+        return blocks;
+    }
+
+    public boolean isEmpty() {
+        return blocks == 0;
+    }
+
+    public static long bucket(int level, long time) {
+        return ((long) level << 56) | prefix(level, time);
+    }
+
+    public static int level(long bucket) {
+        return (int) (bucket >>> 56);
+    }
+
+    /** time prefix of the bucket, the top 8 * level bits of the 48 bit time */
+    public static long prefix(long bucket) {
+        return bucket & 0xffffffffffffL;
+    }
+
+    public static long prefix(int level, long time) {
+        return level == 0 ? 0 : (time & 0xffffffffffffL) >> (48 - 8 * level);
+    }
+
+    /** slot of the time inside the bucket of the level */
+    public static int slot(int level, long time) {
+        return (int) ((time >> (40 - 8 * level)) & 0xff);
+    }
+}
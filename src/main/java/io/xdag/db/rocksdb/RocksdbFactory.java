@@ -27,13 +27,29 @@ import io.xdag.config.Config;
 import io.xdag.db.DatabaseFactory;
 import io.xdag.db.DatabaseName;
 import io.xdag.db.KVSource;
+import io.xdag.db.FileSource;
+import io.xdag.db.MappedSumsStore;
 import io.xdag.db.SimpleFileStore;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.EnumMap;
+import java.util.Map;
+import lombok.extern.slf4j.Slf4j;
 
+@Slf4j
 public class RocksdbFactory implements DatabaseFactory {
 
+    /** 提交日志所在数据库的名字 不属于DatabaseName 只由工厂使用 */
+    public static final String JOURNAL_NAME = "JOURNAL";
+    private static final byte[] JOURNAL_KEY = "commit".getBytes(StandardCharsets.UTF_8);
+
     private final EnumMap<DatabaseName, KVSource<byte[], byte[]>> databases = new EnumMap<>(DatabaseName.class);
 
+    private KVSource<byte[], byte[]> journal;
+
+    /** 有一次提交只写入了部分数据库 重启时由recover补全 在此之前不再接受提交 */
+    private volatile boolean incomplete;
+
     protected Config config;
 
     public RocksdbFactory(Config config) {
@@ -52,15 +68,135 @@ public class RocksdbFactory implements DatabaseFactory {
     }
 
     @Override
-    public void close() {
+    public synchronized void close() {
         for (KVSource<byte[], byte[]> db : databases.values()) {
             db.close();
         }
         databases.clear();
+        if (journal != null) {
+            journal.close();
+            journal = null;
+        }
     }
 
     @Override
-    public SimpleFileStore getSumsDB() {
+    public FileSource getSumsDB() {
+        if (config.isStoreSumsMapped()) {
+            return new MappedSumsStore(config.getStoreDir());
+        }
         return new SimpleFileStore(config.getStoreDir());
     }
+
+    @Override
+    public void beginBatch() {
+        for (DatabaseName name : DatabaseName.values()) {
+            getDB(name).beginBatch();
+        }
+    }
+
+    /**
+     * 一次导入的批次分布在多个数据库中 无法用一次写入完成. 先把所有批次作为一条记录写入日志 再逐个写入各数据库
+     * 最后删除日志. 写入中途进程退出时 下次启动的recover按日志重新写入全部批次 批次中只有put和delete
+     * 重复写入的结果相同, 所以各数据库要么都有这次导入 要么都没有.
+     * 与之前一样写入时不sync 断电时各数据库最近未落盘的写入可能丢失 这种情况不在保证范围内
+     */
+    @Override
+    public void commitBatch() {
+        // 先结束所有数据库的批次 无论后面是否成功 当前线程都不会留下未关闭的批次
+        EnumMap<DatabaseName, byte[]> writes = new EnumMap<>(DatabaseName.class);
+        RuntimeException error = null;
+        for (DatabaseName name : DatabaseName.values()) {
+            try {
+                byte[] data = source(name).detachBatch();
+                if (data != null) {
+                    writes.put(name, data);
+                }
+            } catch (RuntimeException e) {
+                if (error == null) {
+                    error = e;
+                }
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+        if (writes.isEmpty()) {
+            return;
+        }
+        synchronized (this) {
+            if (incomplete) {
+                throw new IllegalStateException("A previous commit was only partly written, restart to recover it");
+            }
+            KVSource<byte[], byte[]> journal = getJournal();
+            // 日志写入失败时各数据库还没有改动
+            journal.put(JOURNAL_KEY, encodeJournal(writes));
+            try {
+                for (Map.Entry<DatabaseName, byte[]> entry : writes.entrySet()) {
+                    source(entry.getKey()).writeBatchData(entry.getValue());
+                }
+            } catch (RuntimeException e) {
+                // 保留日志 内存中的状态会回滚 而数据库中已有部分写入 重启前不能再导入
+                incomplete = true;
+                throw e;
+            }
+            journal.delete(JOURNAL_KEY);
+        }
+    }
+
+    /** 补全上次退出时没有写完的提交 要在各数据库被读取之前调用 */
+    @Override
+    public synchronized void recover() {
+        KVSource<byte[], byte[]> journal = getJournal();
+        byte[] record = journal.get(JOURNAL_KEY);
+        if (record == null) {
+            return;
+        }
+        log.info("Replaying an interrupted commit from the journal, {} bytes", record.length);
+        ByteBuffer buffer = ByteBuffer.wrap(record);
+        while (buffer.hasRemaining()) {
+            DatabaseName name = DatabaseName.values()[buffer.get()];
+            byte[] data = new byte[buffer.getInt()];
+            buffer.get(data);
+            RocksdbKVSource db = source(name);
+            db.init();
+            db.writeBatchData(data);
+        }
+        journal.delete(JOURNAL_KEY);
+    }
+
+    @Override
+    public void rollbackBatch() {
+        for (DatabaseName name : DatabaseName.values()) {
+            getDB(name).rollbackBatch();
+        }
+    }
+
+    private RocksdbKVSource source(DatabaseName name) {
+        return (RocksdbKVSource) getDB(name);
+    }
+
+    private synchronized KVSource<byte[], byte[]> getJournal() {
+        if (journal == null) {
+            RocksdbKVSource dataSource = new RocksdbKVSource(JOURNAL_NAME);
+            dataSource.setConfig(config);
+            dataSource.init();
+            journal = dataSource;
+        }
+        return journal;
+    }
+
+    /** 每个数据库: 1字节DatabaseName序号 4字节长度 WriteBatch数据 */
+    private static byte[] encodeJournal(EnumMap<DatabaseName, byte[]> writes) {
+        int size = 0;
+        for (byte[] data : writes.values()) {
+            size += 5 + data.length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        for (Map.Entry<DatabaseName, byte[]> entry : writes.entrySet()) {
+            buffer.put((byte) entry.getKey().ordinal());
+            buffer.putInt(entry.getValue().length);
+            buffer.put(entry.getValue());
+        }
+        return buffer.array();
+    }
 }
@@ -34,6 +34,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiPredicate;
 
 import org.apache.commons.codec.binary.Hex;
 import org.rocksdb.BackupEngine;
@@ -49,7 +50,9 @@ import org.rocksdb.RestoreOptions;
 import org.rocksdb.RocksDB;
 import org.rocksdb.RocksDBException;
 import org.rocksdb.RocksIterator;
+import org.rocksdb.Slice;
 import org.rocksdb.WriteBatch;
+import org.rocksdb.WriteBatchWithIndex;
 import org.rocksdb.WriteOptions;
 
 import io.xdag.config.Config;
@@ -66,6 +69,8 @@ public class RocksdbKVSource implements KVSource<byte[], byte[]> {
     public static final int HASH_LEN = 32;
     public static final int PREFIX_BYTES = 8;
     // public static final int PREFIX_BYTES = 8;
+    /** length of the fixed prefix extractor used for bloom filters and prefix seeks */
+    public static final int PREFIX_EXTRACTOR_LENGTH = 16;
 
     static {
         RocksDB.loadLibrary();
@@ -99,6 +104,9 @@ public class RocksdbKVSource implements KVSource<byte[], byte[]> {
      */
     private ReadWriteLock resetDbLock = new ReentrantReadWriteLock();
 
+    /** write batch opened by the current thread, see beginBatch */
+    private final ThreadLocal<Batch> threadBatch = new ThreadLocal<>();
+
     public RocksdbKVSource(String name) {
         this.name = name;
         log.debug("New RocksdbKVSource: " + name);
@@ -136,7 +144,7 @@ public class RocksdbKVSource implements KVSource<byte[], byte[]> {
                 options.setIncreaseParallelism(config.getStoreMaxThreads());
 
                 // key prefix for state node lookups
-                options.useFixedLengthPrefixExtractor(16);
+                options.useFixedLengthPrefixExtractor(PREFIX_EXTRACTOR_LENGTH);
 
                 // table options
                 final BlockBasedTableConfig tableCfg;
@@ -233,12 +241,17 @@ public class RocksdbKVSource implements KVSource<byte[], byte[]> {
                                 + ", "
                                 + (val == null ? "null" : val.length));
             }
+            Batch batch = threadBatch.get();
             if (val != null) {
                 if (db == null) {
                     System.out.println("db is null");
+                } else if (batch != null) {
+                    batch.writes.put(key, val);
                 } else {
                     db.put(key, val);
                 }
+            } else if (batch != null) {
+                batch.writes.delete(key);
             } else {
                 db.delete(key);
             }
@@ -267,7 +280,8 @@ public class RocksdbKVSource implements KVSource<byte[], byte[]> {
             if (log.isTraceEnabled()) {
                 log.trace("~> RocksdbKVSource.get(): " + name + ", key: " + Hex.encodeHexString(key));
             }
-            byte[] ret = db.get(readOpts, key);
+            Batch batch = threadBatch.get();
+            byte[] ret = batch == null ? db.get(readOpts, key) : batch.writes.getFromBatchAndDB(db, readOpts, key);
             if (log.isTraceEnabled()) {
                 log.trace(
                         "<~ RocksdbKVSource.get(): "
@@ -294,7 +308,12 @@ public class RocksdbKVSource implements KVSource<byte[], byte[]> {
             if (log.isTraceEnabled()) {
                 log.trace("~> RocksdbKVSource.delete(): " + name + ", key: " + Hex.encodeHexString(key));
             }
-            db.delete(key);
+            Batch batch = threadBatch.get();
+            if (batch != null) {
+                batch.writes.delete(key);
+            } else {
+                db.delete(key);
+            }
             if (log.isTraceEnabled()) {
                 log.trace("<~ RocksdbKVSource.delete(): " + name + ", key: " + Hex.encodeHexString(key));
             }
@@ -314,6 +333,17 @@ public class RocksdbKVSource implements KVSource<byte[], byte[]> {
                 log.trace("~> RocksDbDataSource.updateBatch(): " + name + ", " + rows.size());
             }
             try {
+                Batch threadWrites = threadBatch.get();
+                if (threadWrites != null) {
+                    for (Map.Entry<byte[], byte[]> entry : rows.entrySet()) {
+                        if (entry.getValue() == null) {
+                            threadWrites.writes.delete(entry.getKey());
+                        } else {
+                            threadWrites.writes.put(entry.getKey(), entry.getValue());
+                        }
+                    }
+                    return;
+                }
 
                 try (WriteBatch batch = new WriteBatch();
                         WriteOptions writeOptions = new WriteOptions()) {
@@ -368,35 +398,52 @@ public class RocksdbKVSource implements KVSource<byte[], byte[]> {
 
     @Override
     public List<byte[]> prefixValueLookup(byte[] key, int prefixBytes) {
-        // if (prefixBytes != PREFIX_BYTES)
-        // throw new RuntimeException("RocksdbKVSource.prefixLookup() supports only " +
-        // prefixBytes + "-bytes prefix");
+        List<byte[]> retList = new ArrayList<>();
+        prefixScan(key, (k, v) -> retList.add(v));
+        return retList;
+    }
 
+    @Override
+    public List<byte[]> prefixKeyLookup(byte[] key, int prefixBytes) {
+        List<byte[]> retList = new ArrayList<>();
+        prefixScan(key, (k, v) -> retList.add(k));
+        return retList;
+    }
+
+    @Override
+    public void prefixScan(byte[] prefix, BiPredicate<byte[], byte[]> visitor) {
         resetDbLock.readLock().lock();
         try {
-
             if (log.isTraceEnabled()) {
-                log.trace(
-                        "~> RocksdbKVSource.prefixLookup(): " + name + ", key: " + Hex.encodeHexString(key));
+                log.trace("~> RocksdbKVSource.prefixScan(): " + name + ", key: " + Hex.encodeHexString(prefix));
             }
 
-            // RocksDB sets initial position of iterator to the first key which is greater
-            // or equal to the
-            // seek key
-            // since keys in RocksDB are ordered in asc order iterator must be initiated
-            // with the lowest
-            // key
-            // thus bytes with indexes greater than PREFIX_BYTES must be nullified
-            // byte[] prefix = new byte[PREFIX_BYTES];
-            // arraycopy(key, 0, prefix, 0, PREFIX_BYTES);
-
-            List<byte[]> retList = new ArrayList<>();
-            try (RocksIterator it = db.newIterator(readOpts)) {
-                // it.seek(prefix);
-                it.seek(key);
-                for (; it.isValid(); it.next()) {
-                    if (BytesUtils.keyStartsWith(it.key(), key)) {
-                        retList.add(it.value());
+            int count = 0;
+            byte[] upperBound = prefixUpperBound(prefix);
+            try (ReadOptions scanOpts = new ReadOptions().setVerifyChecksums(false);
+                    Slice upperBoundSlice = upperBound == null ? null : new Slice(upperBound)) {
+                // the prefix extractor only covers keys of at least PREFIX_EXTRACTOR_LENGTH bytes,
+                // shorter prefixes must fall back to a total order seek bounded from above
+                if (prefix.length >= PREFIX_EXTRACTOR_LENGTH) {
+                    scanOpts.setPrefixSameAsStart(true);
+                } else {
+                    scanOpts.setTotalOrderSeek(true);
+                }
+                if (upperBoundSlice != null) {
+                    scanOpts.setIterateUpperBound(upperBoundSlice);
+                }
+                Batch batch = threadBatch.get();
+                try (RocksIterator it = batch == null ? db.newIterator(scanOpts)
+                        : batch.writes.newIteratorWithBase(db.newIterator(scanOpts))) {
+                    for (it.seek(prefix); it.isValid(); it.next()) {
+                        byte[] key = it.key();
+                        if (!BytesUtils.keyStartsWith(key, prefix)) {
+                            break;
+                        }
+                        count++;
+                        if (!visitor.test(key, it.value())) {
+                            break;
+                        }
                     }
                 }
             } catch (Exception e) {
@@ -407,62 +454,111 @@ public class RocksdbKVSource implements KVSource<byte[], byte[]> {
 
             if (log.isTraceEnabled()) {
                 log.trace(
-                        "<~ RocksdbKVSource.prefixLookup(): "
+                        "<~ RocksdbKVSource.prefixScan(): "
                                 + name
                                 + ", key: "
-                                + Hex.encodeHexString(key)
+                                + Hex.encodeHexString(prefix)
                                 + ", "
-                                + (retList.isEmpty() ? "null" : retList.size()));
+                                + count);
             }
-
-            return retList;
-
         } finally {
             resetDbLock.readLock().unlock();
         }
     }
 
     @Override
-    public List<byte[]> prefixKeyLookup(byte[] key, int prefixBytes) {
-        resetDbLock.readLock().lock();
-        try {
-
-            if (log.isTraceEnabled()) {
-                log.trace(
-                        "~> RocksdbKVSource.prefixLookup(): " + name + ", key: " + Hex.encodeHexString(key));
-            }
+    public void beginBatch() {
+        Batch batch = threadBatch.get();
+        if (batch == null) {
+            batch = new Batch();
+            threadBatch.set(batch);
+        }
+        batch.depth++;
+    }
 
-            List<byte[]> retList = new ArrayList<>();
-            try (RocksIterator it = db.newIterator(readOpts)) {
-                it.seek(key);
-                for (; it.isValid(); it.next()) {
-                    if (BytesUtils.keyStartsWith(it.key(), key)) {
-                        retList.add(it.key());
-                    }
-                }
-            } catch (Exception e) {
-                log.error("Failed to seek by prefix in db '{}'", name, e);
-                hintOnTooManyOpenFiles(e);
-                throw new RuntimeException(e);
+    @Override
+    public void commitBatch() {
+        Batch batch = threadBatch.get();
+        if (batch == null) {
+            throw new IllegalStateException("No write batch opened on db " + name);
+        }
+        if (--batch.depth > 0) {
+            return;
+        }
+        threadBatch.remove();
+        resetDbLock.readLock().lock();
+        try (WriteBatchWithIndex writes = batch.writes; WriteOptions writeOptions = new WriteOptions()) {
+            if (writes.count() > 0) {
+                db.write(writeOptions, writes);
             }
+        } catch (RocksDBException e) {
+            log.error("Error committing batch on db '{}'", name, e);
+            hintOnTooManyOpenFiles(e);
+            throw new RuntimeException(e);
+        } finally {
+            resetDbLock.readLock().unlock();
+        }
+    }
 
-            if (log.isTraceEnabled()) {
-                log.trace(
-                        "<~ RocksdbKVSource.prefixLookup(): "
-                                + name
-                                + ", key: "
-                                + Hex.encodeHexString(key)
-                                + ", "
-                                + (retList.isEmpty() ? "null" : retList.size()));
-            }
+    @Override
+    public void rollbackBatch() {
+        Batch batch = threadBatch.get();
+        if (batch != null) {
+            threadBatch.remove();
+            batch.writes.close();
+        }
+    }
 
-            return retList;
+    /**
+     * Close the batch opened by the current thread like commitBatch, but return its writes as
+     * serialized WriteBatch data instead of writing them. Returns null for a nested batch or a batch
+     * without writes. Used by RocksdbFactory to journal a commit that spans several databases.
+     */
+    byte[] detachBatch() {
+        Batch batch = threadBatch.get();
+        if (batch == null) {
+            throw new IllegalStateException("No write batch opened on db " + name);
+        }
+        if (--batch.depth > 0) {
+            return null;
+        }
+        threadBatch.remove();
+        try (WriteBatchWithIndex writes = batch.writes) {
+            return writes.count() > 0 ? writes.getWriteBatch().data() : null;
+        } catch (RocksDBException e) {
+            throw new RuntimeException(e);
+        }
+    }
 
+    /** Atomically write serialized WriteBatch data returned by detachBatch. */
+    void writeBatchData(byte[] data) {
+        resetDbLock.readLock().lock();
+        try (WriteBatch writes = new WriteBatch(data); WriteOptions writeOptions = new WriteOptions()) {
+            db.write(writeOptions, writes);
+        } catch (RocksDBException e) {
+            log.error("Error writing batch on db '{}'", name, e);
+            hintOnTooManyOpenFiles(e);
+            throw new RuntimeException(e);
         } finally {
             resetDbLock.readLock().unlock();
         }
     }
 
+    /**
+     * Smallest key greater than every key starting with prefix, or null when the prefix is all
+     * 0xff bytes and the scan has no upper bound.
+     */
+    static byte[] prefixUpperBound(byte[] prefix) {
+        byte[] upperBound = prefix.clone();
+        for (int i = upperBound.length - 1; i >= 0; i--) {
+            if (upperBound[i] != (byte) 0xff) {
+                upperBound[i]++;
+                return BytesUtils.subArray(upperBound, 0, i + 1);
+            }
+        }
+        return null;
+    }
+
     @Override
     public boolean flush() {
         return false;
@@ -496,6 +592,12 @@ public class RocksdbKVSource implements KVSource<byte[], byte[]> {
         init();
     }
 
+    /** pending writes of one thread, reads through getFromBatchAndDB see them before they are committed */
+    private static class Batch {
+        private final WriteBatchWithIndex writes = new WriteBatchWithIndex(true);
+        private int depth;
+    }
+
     private Path getPath() {
         return Paths.get(config.getStoreDir(), name);
     }
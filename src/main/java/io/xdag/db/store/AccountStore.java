@@ -23,12 +23,17 @@
  */
 package io.xdag.db.store;
 
-import static io.xdag.utils.FastByteComparisons.equalBytes;
-
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
 
 import org.spongycastle.util.encoders.Hex;
 
@@ -37,19 +42,57 @@ import io.xdag.core.Block;
 import io.xdag.core.XdagField;
 import io.xdag.crypto.ECKey;
 import io.xdag.db.KVSource;
+import io.xdag.utils.ByteArrayWrapper;
 import io.xdag.utils.BytesUtils;
 import io.xdag.wallet.Wallet;
 import lombok.extern.slf4j.Slf4j;
 
+/**
+ * 钱包地址块. 磁盘上仍是<hash->nexthash>链表 内存中维护hashlow->账户 按加入顺序与按余额排序的索引
+ * 删除 查询余额与选择支付账户不再遍历链表. 余额由acceptAmount在同一批次中增量更新 同时维护每个钱包密钥的余额合计
+ * 读取余额时不需要stateLock也不访问数据库.
+ */
 @Slf4j
 public class AccountStore {
     private static final byte[] ACCOUNT_ORIGIN_KEY = Hex.decode("FFFFFFFFFFFFFFFF");
     private static final byte[] ACCOUNT_GLOBAL_BALANCE = Hex.decode("EEEEEEEEEEEEEEEE");
     private static final byte[] ACCOUNT_GLOBAL_MINER = Hex.decode("FFFFFFFFFFFFFFFE");
+    /** 余额从大到小 相同余额时新加入的在前 */
+    private static final Comparator<Account> BY_AMOUNT = (a, b) -> a.amount != b.amount
+            ? Long.compare(b.amount, a.amount)
+            : Long.compare(b.seq, a.seq);
     /** <hash->nexthash> */
     private KVSource<byte[], byte[]> accountSource;
     private BlockStore blockStore;
     private Wallet wallet;
+    /** <hashlow, account> */
+    private final Map<ByteArrayWrapper, Account> byHash = new ConcurrentHashMap<>();
+    /** <加入序号, account> 序号越大越靠近链表头 */
+    private final ConcurrentSkipListMap<Long, Account> bySeq = new ConcurrentSkipListMap<>();
+    private final ConcurrentSkipListSet<Account> byAmount = new ConcurrentSkipListSet<>(BY_AMOUNT);
+    /** <keyIndex, 该密钥所有地址块的余额之和> */
+    private final Map<Integer, Long> keyBalances = new ConcurrentHashMap<>();
+    /** ACCOUNT_GLOBAL_BALANCE的内存副本 */
+    private volatile long gBalance;
+    private long nextSeq = 0;
+    /** 批次中索引修改前的状态 回滚时恢复 */
+    private Deque<Account[]> undo;
+    private long undoGBalance;
+
+    /** 索引中的账户 不可变 修改时整体替换 */
+    private static class Account {
+        final byte[] hashlow;
+        final int keyIndex;
+        final long amount;
+        final long seq;
+
+        Account(byte[] hashlow, int keyIndex, long amount, long seq) {
+            this.hashlow = hashlow;
+            this.keyIndex = keyIndex;
+            this.amount = amount;
+            this.seq = seq;
+        }
+    }
 
     public AccountStore(
             Wallet wallet, BlockStore blockStore, KVSource<byte[], byte[]> accountSource) {
@@ -60,10 +103,89 @@ public class AccountStore {
 
     public void init() {
         this.accountSource.init();
+        rebuild();
     }
 
     public void reset() {
         this.accountSource.reset();
+        rebuild();
+    }
+
+    /** 启动时遍历一次链表建立索引 */
+    private synchronized void rebuild() {
+        byHash.clear();
+        bySeq.clear();
+        byAmount.clear();
+        keyBalances.clear();
+        byte[] global = accountSource.get(ACCOUNT_GLOBAL_BALANCE);
+        gBalance = global == null ? 0 : BytesUtils.bytesToLong(global, 0, false);
+        List<byte[]> list = new ArrayList<>();
+        byte[] first = accountSource.get(ACCOUNT_ORIGIN_KEY);
+        while (first != null) {
+            list.add(first);
+            first = accountSource.get(first);
+        }
+        nextSeq = list.size();
+        for (int i = 0; i < list.size(); i++) {
+            byte[] hashlow = list.get(i);
+            Block info = blockStore.getBlockInfoByHash(hashlow);
+            index(new Account(hashlow, blockStore.getBlockKeyIndex(hashlow),
+                    info == null ? 0 : info.getAmount(), list.size() - 1 - i));
+        }
+        log.debug("Account index rebuilt, size:" + byHash.size());
+    }
+
+    public synchronized void beginBatch() {
+        undo = new ArrayDeque<>();
+        undoGBalance = gBalance;
+    }
+
+    public synchronized void commitBatch() {
+        undo = null;
+    }
+
+    public synchronized void rollbackBatch() {
+        if (undo == null) {
+            return;
+        }
+        while (!undo.isEmpty()) {
+            Account[] change = undo.pop();
+            if (change[1] != null) {
+                unindex(change[1]);
+            }
+            if (change[0] != null) {
+                index(change[0]);
+            }
+        }
+        gBalance = undoGBalance;
+        undo = null;
+    }
+
+    /** 用after替换before 任一个可以为null */
+    private void replace(Account before, Account after) {
+        if (before != null) {
+            unindex(before);
+        }
+        if (after != null) {
+            index(after);
+        }
+        if (undo != null) {
+            undo.push(new Account[] { before, after });
+        }
+    }
+
+    private void index(Account account) {
+        byHash.put(new ByteArrayWrapper(account.hashlow), account);
+        bySeq.put(account.seq, account);
+        byAmount.add(account);
+        keyBalances.merge(account.keyIndex, account.amount, Long::sum);
+    }
+
+    private void unindex(Account account) {
+        byHash.remove(new ByteArrayWrapper(account.hashlow));
+        bySeq.remove(account.seq);
+        byAmount.remove(account);
+        keyBalances.merge(account.keyIndex, -account.amount, Long::sum);
     }
 
     /** 存放第一个地址块 */
@@ -76,12 +198,16 @@ public class AccountStore {
                         + " key in wallet");
         accountSource.put(ACCOUNT_ORIGIN_KEY, block.getHashLow());
         blockStore.updateBlockKeyIndex(block.getHashLow(), keyIndex);
+        for (Account account : new ArrayList<>(bySeq.values())) {
+            replace(account, null);
+        }
+        replace(null, new Account(block.getHashLow(), keyIndex, block.getAmount(), nextSeq++));
     }
 
     /** 账户形成链表 */
     public synchronized void addNewAccount(Block block, int keyIndex) {
         // 第一个
-        if (getAllAccount().size() == 0) {
+        if (byHash.isEmpty()) {
             log.debug("Global miner");
             accountSource.put(ACCOUNT_GLOBAL_MINER, block.getHash());
         }
@@ -94,37 +220,51 @@ public class AccountStore {
         accountSource.put(block.getHashLow(), accountSource.get(ACCOUNT_ORIGIN_KEY));
         accountSource.put(ACCOUNT_ORIGIN_KEY, block.getHashLow());
         blockStore.updateBlockKeyIndex(block.getHashLow(), keyIndex);
+        replace(null, new Account(block.getHashLow(), keyIndex, block.getAmount(), nextSeq++));
     }
 
     public synchronized void removeAccount(Block block) {
         log.debug("Remove an account:" + Hex.toHexString(block.getHashLow()));
-        byte[] value = accountSource.get(block.getHashLow());
-        byte[] key = ACCOUNT_ORIGIN_KEY;
-        while (!equalBytes(accountSource.get(key), block.getHashLow())) {
-            key = accountSource.get(key);
+        Account account = byHash.get(new ByteArrayWrapper(block.getHashLow()));
+        if (account != null) {
+            // 链表中的前一个是序号更大的下一个账户
+            Map.Entry<Long, Account> prev = bySeq.higherEntry(account.seq);
+            byte[] key = prev == null ? ACCOUNT_ORIGIN_KEY : prev.getValue().hashlow;
+            byte[] value = accountSource.get(block.getHashLow());
+            if (value == null) {
+                accountSource.delete(key);
+            } else {
+                accountSource.put(key, value);
+            }
+            accountSource.delete(block.getHashLow());
+            replace(account, null);
         }
-        accountSource.put(key, value);
-        accountSource.delete(block.getHashLow());
 
         // TODO:block store
         blockStore.deleteBlockKeyIndex(block.getHashLow());
     }
 
-    /** 返回满足的地址 Address<send amount+192bit hash> */
+    /** 账户余额变化 由acceptAmount调用 不是我们的账户时忽略 */
+    public synchronized void updateAmount(byte[] hashlow, long amount) {
+        Account account = byHash.get(new ByteArrayWrapper(hashlow));
+        if (account == null || account.amount == amount) {
+            return;
+        }
+        replace(account, new Account(account.hashlow, account.keyIndex, amount, account.seq));
+    }
+
+    /** 返回满足的地址 Address<send amount+192bit hash> 优先使用余额大的账户 */
     public Map<Address, ECKey> getAccountListByAmount(long amount) {
         Map<Address, ECKey> result = new LinkedHashMap<>();
-        byte[] first = accountSource.get(ACCOUNT_ORIGIN_KEY);
         long res = amount;
-        while (res > 0 && first != null) {
-            long amountRelease = blockStore.getBlockInfoByHash(first).getAmount();
-            if (amountRelease > 0) {
-                ECKey key = wallet.getKeyByIndex(blockStore.getBlockKeyIndex(first));
-                long sendValue = Math.min(amountRelease, res);
-                result.put(new Address(first, XdagField.FieldType.XDAG_FIELD_IN, sendValue), key);
-                res -= amountRelease;
+        for (Account account : byAmount) {
+            if (res <= 0 || account.amount <= 0) {
+                break;
             }
-
-            first = accountSource.get(first);
+            ECKey key = wallet.getKeyByIndex(account.keyIndex);
+            long sendValue = Math.min(account.amount, res);
+            result.put(new Address(account.hashlow, XdagField.FieldType.XDAG_FIELD_IN, sendValue), key);
+            res -= account.amount;
         }
         // 没有足够的账户去支付
         if (res > 0) {
@@ -135,33 +275,49 @@ public class AccountStore {
         return result;
     }
 
+    /** 账户余额 不是我们的账户时返回-1 */
+    public long getAccountAmount(byte[] hashlow) {
+        Account account = byHash.get(new ByteArrayWrapper(hashlow));
+        return account == null ? -1 : account.amount;
+    }
+
+    public int getAccountKeyIndex(byte[] hashlow) {
+        Account account = byHash.get(new ByteArrayWrapper(hashlow));
+        return account == null ? -2 : account.keyIndex;
+    }
+
+    /** 某个钱包密钥下所有地址块的余额 */
+    public long getKeyBalance(int keyIndex) {
+        return keyBalances.getOrDefault(keyIndex, 0L);
+    }
+
+    /** <keyIndex, balance>的快照 */
+    public Map<Integer, Long> getKeyBalances() {
+        return new HashMap<>(keyBalances);
+    }
+
+    public int getAccountSize() {
+        return byHash.size();
+    }
+
     public Block getAccountBlockByHash(byte[] hashlow, boolean isRaw) {
         return blockStore.getBlockByHash(hashlow, isRaw);
     }
 
-    public void updateGBanlance(long amount) {
-        if (accountSource.get(ACCOUNT_GLOBAL_BALANCE) == null) {
-            accountSource.put(ACCOUNT_GLOBAL_BALANCE, BytesUtils.longToBytes(amount, false));
-        } else {
-            long global = BytesUtils.bytesToLong(accountSource.get(ACCOUNT_GLOBAL_BALANCE), 0, false);
-            accountSource.put(ACCOUNT_GLOBAL_BALANCE, BytesUtils.longToBytes(amount + global, false));
-        }
+    public synchronized void updateGBanlance(long amount) {
+        gBalance += amount;
+        accountSource.put(ACCOUNT_GLOBAL_BALANCE, BytesUtils.longToBytes(gBalance, false));
     }
 
     public long getGBalance() {
-        if (accountSource.get(ACCOUNT_GLOBAL_BALANCE) == null) {
-            return 0;
-        } else {
-            return BytesUtils.bytesToLong(accountSource.get(ACCOUNT_GLOBAL_BALANCE), 0, false);
-        }
+        return gBalance;
     }
 
+    /** 按链表顺序 最新加入的在前 */
     public List<byte[]> getAllAccount() {
-        List<byte[]> res = new ArrayList<>();
-        byte[] first = accountSource.get(ACCOUNT_ORIGIN_KEY);
-        while (first != null) {
-            res.add(first);
-            first = accountSource.get(first);
+        List<byte[]> res = new ArrayList<>(byHash.size());
+        for (Account account : bySeq.descendingMap().values()) {
+            res.add(account.hashlow);
         }
         return res;
     }
@@ -0,0 +1,171 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2030 The XdagJ Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.xdag.db.store;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+
+import io.xdag.core.Block;
+import io.xdag.utils.BytesUtils;
+
+/**
+ * Fixed layout record holding everything BlockStore keeps about a block besides its raw data, so
+ * a block can be rebuilt with a single point lookup.
+ *
+ * <pre>
+ * | difficulty 16 | maxdifflink 32 | amount 8 | ref 32 | flags 4 | time 8 | fee 8 | hash 32 | prev epoch diff 16 |
+ * </pre>
+ *
+ * Numbers are big endian like the legacy per-field keys, an all zero link means "not set". Records
+ * written before the prev epoch difficulty was added end after the hash, all ones there also means
+ * "unknown".
+ */
+public final class BlockInfo {
+
+    public static final int DIFF_OFFSET = 0;
+    public static final int MAXDIFFLINK_OFFSET = DIFF_OFFSET + 16;
+    public static final int AMOUNT_OFFSET = MAXDIFFLINK_OFFSET + 32;
+    public static final int REF_OFFSET = AMOUNT_OFFSET + 8;
+    public static final int FLAGS_OFFSET = REF_OFFSET + 32;
+    public static final int TIME_OFFSET = FLAGS_OFFSET + 4;
+    public static final int FEE_OFFSET = TIME_OFFSET + 8;
+    public static final int HASH_OFFSET = FEE_OFFSET + 8;
+    public static final int PREV_EPOCH_DIFF_OFFSET = HASH_OFFSET + 32;
+    public static final int LENGTH = PREV_EPOCH_DIFF_OFFSET + 16;
+    private static final byte[] UNKNOWN_DIFF = BytesUtils.bigIntegerToBytes(BigInteger.ONE.shiftLeft(128).subtract(
+            BigInteger.ONE), 16, false);
+
+    private BlockInfo() {
+    }
+
+    public static byte[] encode(Block block) {
+        byte[] record = new byte[LENGTH];
+        setDifficulty(record, block.getDifficulty());
+        setLink(record, MAXDIFFLINK_OFFSET, block.getMaxDifflink() == null ? null : block.getMaxDifflink().getHashLow());
+        setLong(record, AMOUNT_OFFSET, block.getAmount());
+        setLink(record, REF_OFFSET, block.getRef() == null ? null : block.getRef().getHashLow());
+        setInt(record, FLAGS_OFFSET, block.getFlags());
+        setLong(record, TIME_OFFSET, block.getTimestamp());
+        setLong(record, FEE_OFFSET, block.getFee());
+        setLink(record, HASH_OFFSET, block.getHash());
+        setPrevEpochDiff(record, block.getPrevEpochDiff());
+        return record;
+    }
+
+    public static Block decode(byte[] hashlow, byte[] record) {
+        Block block = new Block(
+                BytesUtils.bytesToLong(record, TIME_OFFSET, false),
+                BytesUtils.bytesToLong(record, AMOUNT_OFFSET, false),
+                BytesUtils.bytesToBigInteger(record, DIFF_OFFSET, false),
+                BytesUtils.bytesToLong(record, FEE_OFFSET, false),
+                getLink(record, REF_OFFSET),
+                getLink(record, MAXDIFFLINK_OFFSET),
+                BytesUtils.bytesToInt(record, FLAGS_OFFSET, false));
+        block.setHashLow(hashlow);
+        block.setHash(getLink(record, HASH_OFFSET));
+        block.setPrevEpochDiff(getPrevEpochDiff(record));
+        return block;
+    }
+
+    /** 按字段更新记录 field为BlockStore中的字段前缀 */
+    public static void update(byte[] record, byte field, Block block) {
+        switch (field) {
+        case BlockStore.BLOCK_MAXDIFF:
+            setDifficulty(record, block.getDifficulty());
+            setPrevEpochDiff(record, block.getPrevEpochDiff());
+            break;
+        case BlockStore.BLOCK_MAXDIFFLINK:
+            setLink(record, MAXDIFFLINK_OFFSET,
+                    block.getMaxDifflink() == null ? null : block.getMaxDifflink().getHashLow());
+            break;
+        case BlockStore.BLOCK_AMOUNT:
+            setLong(record, AMOUNT_OFFSET, block.getAmount());
+            break;
+        case BlockStore.BLOCK_REF:
+            setLink(record, REF_OFFSET, block.getRef() == null ? null : block.getRef().getHashLow());
+            break;
+        case BlockStore.BLOCK_FLAG:
+            setInt(record, FLAGS_OFFSET, block.getFlags());
+            break;
+        case BlockStore.BLOCK_TIME:
+            setLong(record, TIME_OFFSET, block.getTimestamp());
+            break;
+        case BlockStore.BLOCK_FEE:
+            setLong(record, FEE_OFFSET, block.getFee());
+            break;
+        default:
+            throw new IllegalStateException("Unexpected value: " + field);
+        }
+    }
+
+    public static long getAmount(byte[] record) {
+        return BytesUtils.bytesToLong(record, AMOUNT_OFFSET, false);
+    }
+
+    public static int getFlags(byte[] record) {
+        return BytesUtils.bytesToInt(record, FLAGS_OFFSET, false);
+    }
+
+    static void setDifficulty(byte[] record, BigInteger diff) {
+        byte[] value = diff == null ? new byte[16] : BytesUtils.bigIntegerToBytes(diff, 16, false);
+        System.arraycopy(value, 0, record, DIFF_OFFSET, 16);
+    }
+
+    static void setPrevEpochDiff(byte[] record, BigInteger diff) {
+        if (record.length < LENGTH) {
+            return;
+        }
+        byte[] value = diff == null ? UNKNOWN_DIFF : BytesUtils.bigIntegerToBytes(diff, 16, false);
+        System.arraycopy(value, 0, record, PREV_EPOCH_DIFF_OFFSET, 16);
+    }
+
+    static BigInteger getPrevEpochDiff(byte[] record) {
+        if (record.length < LENGTH
+                || Arrays.equals(Arrays.copyOfRange(record, PREV_EPOCH_DIFF_OFFSET, LENGTH), UNKNOWN_DIFF)) {
+            return null;
+        }
+        return BytesUtils.bytesToBigInteger(record, PREV_EPOCH_DIFF_OFFSET, false);
+    }
+
+    static void setLink(byte[] record, int offset, byte[] hash) {
+        if (hash == null) {
+            Arrays.fill(record, offset, offset + 32, (byte) 0);
+        } else {
+            System.arraycopy(hash, 0, record, offset, 32);
+        }
+    }
+
+    static byte[] getLink(byte[] record, int offset) {
+        byte[] hash = BytesUtils.subArray(record, offset, 32);
+        return BytesUtils.isFullZero(hash) ? null : hash;
+    }
+
+    static void setLong(byte[] record, int offset, long value) {
+        System.arraycopy(BytesUtils.longToBytes(value, false), 0, record, offset, 8);
+    }
+
+    static void setInt(byte[] record, int offset, int value) {
+        System.arraycopy(BytesUtils.intToBytes(value, false), 0, record, offset, 4);
+    }
+}
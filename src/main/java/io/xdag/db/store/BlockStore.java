@@ -25,20 +25,33 @@ package io.xdag.db.store;
 
 import java.math.BigInteger;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.spongycastle.util.encoders.Hex;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+
 import io.xdag.core.Block;
 import io.xdag.core.XdagBlock;
 import io.xdag.db.KVSource;
-import io.xdag.db.SimpleFileStore;
+import io.xdag.db.FileSource;
+import io.xdag.db.SumsBatch;
+import io.xdag.utils.ByteArrayWrapper;
 import io.xdag.utils.BytesUtils;
 import lombok.extern.slf4j.Slf4j;
 
@@ -53,6 +66,19 @@ public class BlockStore {
     public static final byte BLOCK_FEE = 0x06;
     public static final byte BLOCK_KEY_INDEX = 0x07;
     public static final byte BLOCK_HASH = 0x08;
+    /** 区块信息记录 见BlockInfo */
+    public static final byte BLOCK_INFO = 0x09;
+    /** fields of the legacy layout, one key per field, replaced by BLOCK_INFO */
+    private static final byte[] LEGACY_INFO_FIELDS = { BLOCK_MAXDIFF, BLOCK_MAXDIFFLINK, BLOCK_AMOUNT, BLOCK_REF,
+            BLOCK_FLAG, BLOCK_TIME, BLOCK_FEE, BLOCK_HASH };
+    private static final int MIGRATE_BATCH_SIZE = 10000;
+    /** sums最多缓存的区块数 */
+    private static final int SUMS_FLUSH_BLOCKS = 4096;
+    /** sums最长缓存时间 */
+    private static final long SUMS_FLUSH_INTERVAL_MS = 1000;
+    /** 热点区块缓存大小 */
+    private static final long BLOCK_INFO_CACHE_SIZE = 200_000;
+    private static final long RAW_BLOCK_CACHE_SIZE = 50_000;
 
     /** block size key */
     private static final byte[] BLOCK_SIZE = Hex.decode("FFFFFFFFFFFFFFFF");
@@ -67,28 +93,48 @@ public class BlockStore {
     /** origin pretop diff */
     private static final byte[] ORIGINPRETOPDIFF = Hex.decode("FFFFFFFFFFFFFFEF");
     private static final byte[] GLOBAL_ADDRESS = Hex.decode("FFFFFFFFFFFFFEFF");
+    /** block info layout version */
+    private static final byte[] BLOCK_INFO_VERSION = Hex.decode("FFFFFFFFFFFFEFFF");
     /** <prefix-hash,value> eg:<diff-hash,blockdiff> */
     private KVSource<byte[], byte[]> indexSource;
     /** <hash,rawdata> */
     private KVSource<byte[], byte[]> blockSource;
     /** <time-hash,hash> */
     private KVSource<byte[], byte[]> timeSource;
-    private SimpleFileStore simpleFileStore;
+    private FileSource fileSource;
     /** 存sums */
     private BlockingQueue<Block> blockQueue = new LinkedBlockingQueue<>();
 
     private ExecutorService executorService = Executors.newSingleThreadExecutor();
     private Future<?> sumFuture;
+    private final AtomicLong sumsFlushCount = new AtomicLong();
+    private final AtomicLong sumsFlushNanos = new AtomicLong();
+    private final AtomicLong sumsMaxFlushNanos = new AtomicLong();
+    /**
+     * <hashlow, BlockInfo记录> 缓存的是编码后的记录 每次读取解码出新的Block. 缓存只保存已提交的数据
+     * 批次中写入的记录先放在开启批次的线程的Pending中 提交后再写入缓存.
+     */
+    private final Cache<ByteArrayWrapper, byte[]> blockInfoCache = Caffeine.newBuilder()
+            .maximumSize(BLOCK_INFO_CACHE_SIZE)
+            .recordStats()
+            .build();
+    /** <hashlow, 已拆分字段的区块数据> */
+    private final Cache<ByteArrayWrapper, XdagBlock> rawBlockCache = Caffeine.newBuilder()
+            .maximumSize(RAW_BLOCK_CACHE_SIZE)
+            .recordStats()
+            .build();
+    /** 当前线程开启的批次 其他线程只读取缓存与数据库 看不到未提交的写入 */
+    private final ThreadLocal<Pending> pending = new ThreadLocal<>();
 
     public BlockStore(
             KVSource<byte[], byte[]> index,
             KVSource<byte[], byte[]> block,
             KVSource<byte[], byte[]> time,
-            SimpleFileStore simpleFileStore) {
+            FileSource fileSource) {
         this.indexSource = index;
         this.blockSource = block;
         this.timeSource = time;
-        this.simpleFileStore = simpleFileStore;
+        this.fileSource = fileSource;
     }
 
     public void init() {
@@ -101,6 +147,7 @@ public class BlockStore {
         if (indexSource.get(MAIN_SIZE) == null) {
             indexSource.put(MAIN_SIZE, BytesUtils.longToBytes(0, false));
         }
+        migrateBlockInfo();
         Runnable queueProducer = this::processQueue;
         sumFuture = executorService.submit(queueProducer);
     }
@@ -109,37 +156,101 @@ public class BlockStore {
         indexSource.reset();
         blockSource.reset();
         timeSource.reset();
+        invalidateCache();
         indexSource.put(BLOCK_SIZE, BytesUtils.longToBytes(0, false));
         indexSource.put(MAIN_SIZE, BytesUtils.longToBytes(0, false));
-        simpleFileStore.reset();
+        indexSource.put(BLOCK_INFO_VERSION, BytesUtils.intToBytes(1, false));
+        fileSource.reset();
         Runnable queueProducer = this::processQueue;
         sumFuture = executorService.submit(queueProducer);
     }
 
+    /** 阻塞等待区块 合并多个区块的sums增量后定时或达到数量时一次写入 */
     public void processQueue() {
         log.debug("Sum save thread run...");
+        SumsBatch batch = new SumsBatch();
+        long batchStart = 0;
         while (!Thread.currentThread().isInterrupted()) {
-            if (!blockQueue.isEmpty()) {
-                try {
-                    Block block = blockQueue.take();
-                    simpleFileStore.saveBlockSums(block);
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
+            try {
+                long wait = batch.isEmpty() ? SUMS_FLUSH_INTERVAL_MS
+                        : Math.max(0, batchStart + SUMS_FLUSH_INTERVAL_MS - System.currentTimeMillis());
+                Block block = blockQueue.poll(wait, TimeUnit.MILLISECONDS);
+                if (block != null) {
+                    if (batch.isEmpty()) {
+                        batchStart = System.currentTimeMillis();
+                    }
+                    batch.add(block);
+                    while (batch.getBlocks() < SUMS_FLUSH_BLOCKS && (block = blockQueue.poll()) != null) {
+                        batch.add(block);
+                    }
+                }
+                if (batch.getBlocks() >= SUMS_FLUSH_BLOCKS
+                        || (!batch.isEmpty() && System.currentTimeMillis() - batchStart >= SUMS_FLUSH_INTERVAL_MS)) {
+                    flushSums(batch);
+                    batch = new SumsBatch();
                 }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
             }
         }
+        // 退出前写入剩余的sums
+        List<Block> remain = new ArrayList<>();
+        blockQueue.drainTo(remain);
+        for (Block block : remain) {
+            batch.add(block);
+        }
+        flushSums(batch);
+    }
+
+    private void flushSums(SumsBatch batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        long start = System.nanoTime();
+        fileSource.saveSums(batch);
+        long cost = System.nanoTime() - start;
+        sumsFlushCount.incrementAndGet();
+        sumsFlushNanos.addAndGet(cost);
+        sumsMaxFlushNanos.accumulateAndGet(cost, Math::max);
+        log.debug("Flush sums of {} blocks, {} files, {} ms", batch.getBlocks(), batch.getBuckets().size(),
+                cost / 1_000_000);
+    }
+
+    /** 等待写入sums的区块数 */
+    public int getSumsQueueSize() {
+        return blockQueue.size();
+    }
+
+    public long getSumsFlushCount() {
+        return sumsFlushCount.get();
+    }
+
+    /** sums写入的平均耗时 纳秒 */
+    public long getSumsAvgFlushNanos() {
+        long count = sumsFlushCount.get();
+        return count == 0 ? 0 : sumsFlushNanos.get() / count;
+    }
+
+    public long getSumsMaxFlushNanos() {
+        return sumsMaxFlushNanos.get();
     }
 
     // 存储block的过程
     public synchronized void saveBlock(Block block) {
         log.debug("Save Block:" + block);
-        blockQueue.add(block);
+        Pending batch = pending.get();
+        if (batch != null) {
+            batch.sums.add(block);
+        } else {
+            blockQueue.add(block);
+        }
         long timeIndex = block.getTimestamp();
         timeSource.put(getTimeKey(timeIndex, block.getHashLow()), block.getHashLow());
         blockSource.put(block.getHashLow(), block.getXdagBlock().getData());
-        if (indexSource.get(BLOCK_SIZE) != null
-                && BytesUtils.bytesToLong(indexSource.get(BLOCK_SIZE), 0, false) != 0) {
-            long blocksize = BytesUtils.bytesToLong(indexSource.get(BLOCK_SIZE), 0, false) + 1;
+        putRaw(new ByteArrayWrapper(block.getHashLow()), block.getXdagBlock());
+        byte[] blockSize = indexSource.get(BLOCK_SIZE);
+        if (blockSize != null && BytesUtils.bytesToLong(blockSize, 0, false) != 0) {
+            long blocksize = BytesUtils.bytesToLong(blockSize, 0, false) + 1;
             indexSource.put(BLOCK_SIZE, BytesUtils.longToBytes(blocksize, false));
         } else {
             indexSource.put(BLOCK_SIZE, BytesUtils.longToBytes(1, false));
@@ -151,33 +262,70 @@ public class BlockStore {
     }
 
     private void saveBlockInfo(Block block) {
-        indexSource.put(
-                BytesUtils.merge(BLOCK_MAXDIFF, block.getHashLow()),
-                BytesUtils.bigIntegerToBytes(block.getDifficulty(), 16, false));
-        if (block.getMaxDifflink() != null) {
-            indexSource.put(
-                    BytesUtils.merge(BLOCK_MAXDIFFLINK, block.getHashLow()),
-                    block.getMaxDifflink().getHashLow());
-        }
-        if (block.getRef() != null) {
-            indexSource.put(BytesUtils.merge(BLOCK_REF, block.getHashLow()), block.getRef().getHashLow());
+        byte[] record = BlockInfo.encode(block);
+        indexSource.put(BytesUtils.merge(BLOCK_INFO, block.getHashLow()), record);
+        putInfo(new ByteArrayWrapper(block.getHashLow()), record);
+    }
+
+    /** 将旧的每字段一个键的区块信息转换为BlockInfo记录 */
+    private void migrateBlockInfo() {
+        if (indexSource.get(BLOCK_INFO_VERSION) != null) {
+            return;
         }
-        indexSource.put(
-                BytesUtils.merge(BLOCK_AMOUNT, block.getHashLow()),
-                BytesUtils.longToBytes(block.getAmount(), false));
-        indexSource.put(
-                BytesUtils.merge(BLOCK_FLAG, block.getHashLow()),
-                BytesUtils.intToBytes(block.getFlags(), false));
-        indexSource.put(
-                BytesUtils.merge(BLOCK_FEE, block.getHashLow()),
-                BytesUtils.longToBytes(block.getFee(), false));
-        indexSource.put(
-                BytesUtils.merge(BLOCK_TIME, block.getHashLow()),
-                BytesUtils.longToBytes(block.getTimestamp(), false));
-        indexSource.put(BytesUtils.merge(BLOCK_HASH, block.getHashLow()), block.getHash());
+        log.info("Migrating block index to BlockInfo records...");
+        byte[] legacyPrefix = BytesUtils.of(BLOCK_HASH);
+        List<byte[]> hashlows = new ArrayList<>();
+        long migrated = 0;
+        do {
+            hashlows.clear();
+            // migrated keys are deleted, so every pass starts from the head of the prefix again
+            indexSource.prefixScan(legacyPrefix, (key, value) -> {
+                if (key.length == 33) {
+                    hashlows.add(BytesUtils.subArray(key, 1, 32));
+                }
+                return hashlows.size() < MIGRATE_BATCH_SIZE;
+            });
+            Map<byte[], byte[]> rows = new HashMap<>();
+            for (byte[] hashlow : hashlows) {
+                rows.put(BytesUtils.merge(BLOCK_INFO, hashlow), BlockInfo.encode(getLegacyBlockInfo(hashlow)));
+                for (byte field : LEGACY_INFO_FIELDS) {
+                    rows.put(BytesUtils.merge(field, hashlow), null);
+                }
+            }
+            indexSource.updateBatch(rows);
+            migrated += hashlows.size();
+        } while (!hashlows.isEmpty());
+        indexSource.put(BLOCK_INFO_VERSION, BytesUtils.intToBytes(1, false));
+        log.info("Block index migration done, {} blocks", migrated);
+    }
+
+    private Block getLegacyBlockInfo(byte[] hashlow) {
+        long timestamp = getLegacyLong(BLOCK_TIME, hashlow);
+        long amount = getLegacyLong(BLOCK_AMOUNT, hashlow);
+        byte[] diffBytes = indexSource.get(BytesUtils.merge(BLOCK_MAXDIFF, hashlow));
+        BigInteger diff = diffBytes == null ? BigInteger.ZERO : BytesUtils.bytesToBigInteger(diffBytes, 0, false);
+        long fee = getLegacyLong(BLOCK_FEE, hashlow);
+        byte[] ref = indexSource.get(BytesUtils.merge(BLOCK_REF, hashlow));
+        byte[] maxdiffLink = indexSource.get(BytesUtils.merge(BLOCK_MAXDIFFLINK, hashlow));
+        byte[] flagBytes = indexSource.get(BytesUtils.merge(BLOCK_FLAG, hashlow));
+        int flags = flagBytes == null ? 0 : BytesUtils.bytesToInt(flagBytes, 0, false);
+        Block block = new Block(timestamp, amount, diff, fee, ref, maxdiffLink, flags);
+        block.setHashLow(hashlow);
+        block.setHash(indexSource.get(BytesUtils.merge(BLOCK_HASH, hashlow)));
+        return block;
+    }
+
+    private long getLegacyLong(byte field, byte[] hashlow) {
+        byte[] value = indexSource.get(BytesUtils.merge(field, hashlow));
+        return value == null ? 0 : BytesUtils.bytesToLong(value, 0, false);
     }
 
     public boolean hasBlock(byte[] hashlow) {
+        ByteArrayWrapper key = new ByteArrayWrapper(hashlow);
+        Pending batch = pending.get();
+        if ((batch != null && batch.raw.containsKey(key)) || rawBlockCache.getIfPresent(key) != null) {
+            return true;
+        }
         return blockSource.get(hashlow) != null;
     }
 
@@ -214,13 +362,13 @@ public class BlockStore {
         List<Block> blocks = new ArrayList<>();
         long key = starttime >> 16;
         byte[] keyPrefix = BytesUtils.longToBytes(key, false);
-        List<byte[]> keys = timeSource.prefixValueLookup(keyPrefix, keyPrefix.length);
-        for (byte[] bytes : keys) {
-            Block block = getBlockByHash(bytes, true);
+        timeSource.prefixScan(keyPrefix, (timeKey, hashlow) -> {
+            Block block = getBlockByHash(hashlow, true);
             if (block != null) {
                 blocks.add(block);
             }
-        }
+            return true;
+        });
         return blocks;
     }
 
@@ -236,73 +384,142 @@ public class BlockStore {
         if (block == null) {
             return null;
         }
-        block.setXdagBlock(new XdagBlock(blockSource.get(hashlow)));
+        ByteArrayWrapper key = new ByteArrayWrapper(hashlow);
+        Pending batch = pending.get();
+        XdagBlock xdagBlock = batch == null ? null : batch.raw.get(key);
+        if (xdagBlock == null) {
+            xdagBlock = rawBlockCache.get(key, k -> {
+                byte[] data = blockSource.get(hashlow);
+                return data == null ? null : new XdagBlock(data);
+            });
+        }
+        if (xdagBlock == null) {
+            return null;
+        }
+        block.setXdagBlock(xdagBlock);
+        // 需要时再解析
         block.setParsed(false);
-        block.parse();
         return block;
     }
 
     public Block getBlockInfoByHash(byte[] hashlow) {
-
-        if (!hasBlock(hashlow)) {
+        byte[] record = getBlockInfoRecord(hashlow);
+        if (record == null) {
             return null;
         }
-        long timestamp = BytesUtils.bytesToLong(indexSource.get(BytesUtils.merge(BLOCK_TIME, hashlow)), 0, false);
-        long amount = BytesUtils.bytesToLong(indexSource.get(BytesUtils.merge(BLOCK_AMOUNT, hashlow)), 0, false);
-        BigInteger diff;
-        if (indexSource.get(BytesUtils.merge(BLOCK_MAXDIFF, hashlow)) == null) {
-            diff = BigInteger.ZERO;
+        return BlockInfo.decode(hashlow, record);
+    }
+
+    private byte[] getBlockInfoRecord(byte[] hashlow) {
+        ByteArrayWrapper key = new ByteArrayWrapper(hashlow);
+        Pending batch = pending.get();
+        byte[] record = batch == null ? null : batch.info.get(key);
+        if (record != null) {
+            return record;
+        }
+        // 加载与提交后的put在同一个key上串行 不会把旧记录留在缓存中
+        return blockInfoCache.get(key, k -> indexSource.get(BytesUtils.merge(BLOCK_INFO, hashlow)));
+    }
+
+    /** 更新区块信息记录中的一个字段 TypePrefix为字段前缀 */
+    public void updateBlockInfo(byte TypePrefix, Block block) {
+        updateBlockInfo(block, Collections.singleton(TypePrefix));
+    }
+
+    /** 一次读写更新区块信息记录中的多个字段 */
+    public synchronized void updateBlockInfo(Block block, Collection<Byte> typePrefixes) {
+        byte[] record = getBlockInfoRecord(block.getHashLow());
+        if (record == null) {
+            // 区块尚未存储 保存时会写入完整记录
+            return;
+        }
+        // 缓存中的记录可能正被其他线程解码 修改副本后替换
+        record = record.clone();
+        for (byte typePrefix : typePrefixes) {
+            BlockInfo.update(record, typePrefix, block);
+        }
+        indexSource.put(BytesUtils.merge(BLOCK_INFO, block.getHashLow()), record);
+        putInfo(new ByteArrayWrapper(block.getHashLow()), record);
+    }
+
+    private void putInfo(ByteArrayWrapper key, byte[] record) {
+        Pending batch = pending.get();
+        if (batch != null) {
+            batch.info.put(key, record);
         } else {
-            diff = BytesUtils.bytesToBigInteger(
-                    indexSource.get(BytesUtils.merge(BLOCK_MAXDIFF, hashlow)), 0, false);
+            blockInfoCache.put(key, record);
         }
-        long fee = BytesUtils.bytesToLong(indexSource.get(BytesUtils.merge(BLOCK_FEE, hashlow)), 0, false);
-        byte[] ref = indexSource.get(BytesUtils.merge(BLOCK_REF, hashlow));
-        byte[] maxdiffLink = indexSource.get(BytesUtils.merge(BLOCK_MAXDIFFLINK, hashlow));
-        int flags = BytesUtils.bytesToInt(indexSource.get(BytesUtils.merge(BLOCK_FLAG, hashlow)), 0, false);
-        Block block = new Block(timestamp, amount, diff, fee, ref, maxdiffLink, flags);
-        block.setHashLow(hashlow);
-        block.setHash(indexSource.get(BytesUtils.merge(BLOCK_HASH, hashlow)));
-        return block;
     }
 
-    public synchronized void updateBlockInfo(byte TypePrefix, Block block) {
-        byte[] hashlow = block.getHashLow();
-        byte[] value;
-        switch (TypePrefix) {
-        case BLOCK_MAXDIFF:
-            value = BytesUtils.bigIntegerToBytes(block.getDifficulty(), 16, false);
-            break;
-        case BLOCK_MAXDIFFLINK:
-            value = block.getMaxDifflink().getHashLow();
-            break;
-        case BLOCK_AMOUNT:
-            value = BytesUtils.longToBytes(block.getAmount(), false);
-            break;
-        case BLOCK_REF:
-            if (block.getRef() == null) {
-                value = null;
-            } else {
-                value = block.getRef().getHashLow();
-            }
-            break;
-        case BLOCK_FLAG:
-            value = BytesUtils.intToBytes(block.getFlags(), false);
-            break;
-        case BLOCK_TIME:
-            value = BytesUtils.longToBytes(block.getTimestamp(), false);
-            break;
-        case BLOCK_FEE:
-            value = BytesUtils.longToBytes(block.getFee(), false);
-            break;
-        default:
-            throw new IllegalStateException("Unexpected value: " + TypePrefix);
-        }
-        if (value == null) {
-            indexSource.delete(BytesUtils.merge(TypePrefix, hashlow));
+    private void putRaw(ByteArrayWrapper key, XdagBlock xdagBlock) {
+        Pending batch = pending.get();
+        if (batch != null) {
+            batch.raw.put(key, xdagBlock);
+        } else {
+            rawBlockCache.put(key, xdagBlock);
+        }
+    }
+
+    /** 主链回退后区块信息不再是热点 */
+    public void evictBlockInfo(byte[] hashlow) {
+        ByteArrayWrapper key = new ByteArrayWrapper(hashlow);
+        Pending batch = pending.get();
+        if (batch != null) {
+            batch.evict.add(key);
         } else {
-            indexSource.put(BytesUtils.merge(TypePrefix, hashlow), value);
+            blockInfoCache.invalidate(key);
+        }
+    }
+
+    /** 与数据库批次一起开始 当前线程之后的写入提交后才进入缓存 */
+    public void beginBatch() {
+        if (pending.get() == null) {
+            pending.set(new Pending());
+        }
+    }
+
+    /** 数据库批次提交后调用 */
+    public void commitBatch() {
+        Pending batch = pending.get();
+        if (batch == null) {
+            return;
+        }
+        pending.remove();
+        for (Map.Entry<ByteArrayWrapper, XdagBlock> entry : batch.raw.entrySet()) {
+            rawBlockCache.put(entry.getKey(), entry.getValue());
+        }
+        for (Map.Entry<ByteArrayWrapper, byte[]> entry : batch.info.entrySet()) {
+            if (!batch.evict.contains(entry.getKey())) {
+                blockInfoCache.put(entry.getKey(), entry.getValue());
+            }
         }
+        blockInfoCache.invalidateAll(batch.evict);
+        blockQueue.addAll(batch.sums);
+    }
+
+    public void rollbackBatch() {
+        pending.remove();
+    }
+
+    /** 一个批次中写入的缓存记录与待写入sums的区块 */
+    private static class Pending {
+        private final Map<ByteArrayWrapper, byte[]> info = new HashMap<>();
+        private final Map<ByteArrayWrapper, XdagBlock> raw = new HashMap<>();
+        private final Set<ByteArrayWrapper> evict = new HashSet<>();
+        private final List<Block> sums = new ArrayList<>();
+    }
+
+    public void invalidateCache() {
+        blockInfoCache.invalidateAll();
+        rawBlockCache.invalidateAll();
+    }
+
+    public CacheStats getBlockInfoCacheStats() {
+        return blockInfoCache.stats();
+    }
+
+    public CacheStats getRawBlockCacheStats() {
+        return rawBlockCache.stats();
     }
 
     public synchronized void updateBlockKeyIndex(byte[] hashlow, int keyindex) {
@@ -383,8 +600,8 @@ public class BlockStore {
         indexSource.put(ORIGINPRETOP, block.getHashLow());
     }
 
-    public SimpleFileStore getSimpleFileStore() {
-        return simpleFileStore;
+    public FileSource getFileSource() {
+        return fileSource;
     }
 
     public void closeSum() {
@@ -400,6 +617,9 @@ public class BlockStore {
                 e.printStackTrace();
             }
         }
+        if (fileSource != null) {
+            fileSource.close();
+        }
     }
 
     public byte[] getGlobalAddress() {
@@ -23,8 +23,14 @@
  */
 package io.xdag.db.store;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.spongycastle.util.encoders.Hex;
 
@@ -32,16 +38,39 @@ import io.xdag.core.Address;
 import io.xdag.core.Block;
 import io.xdag.core.XdagField;
 import io.xdag.db.KVSource;
+import io.xdag.utils.ByteArrayWrapper;
 import io.xdag.utils.BytesUtils;
 import lombok.extern.slf4j.Slf4j;
 
+/**
+ * 未被引用的区块. 磁盘上每个orphan保存区块时间与到达序号 内存中按到达顺序索引 启动时从磁盘重建 取候选与计数不再访问数据库.
+ */
 @Slf4j
 public class OrphanPool {
     public static final byte ORPHAN_PREFEX = 0x00;
-    /** size key */
+    /** 旧版本的size key 现在由内存索引计数 */
     private static final byte[] ORPHAN_SIZE = Hex.decode("FFFFFFFFFFFFFFFF");
-    // <hash,nexthash>
+    // <hash, time+seq>
     private KVSource<byte[], byte[]> orphanSource;
+    /** <到达序号, orphan> */
+    private final ConcurrentSkipListMap<Long, Orphan> bySeq = new ConcurrentSkipListMap<>();
+    private final Map<ByteArrayWrapper, Orphan> byHash = new ConcurrentHashMap<>();
+    private final AtomicLong nextSeq = new AtomicLong();
+    /** 批次中内存索引的修改 {before, after} 回滚时逆序撤销 没有批次时为null */
+    private Deque<Orphan[]> undo;
+    private long undoNextSeq;
+
+    private static class Orphan {
+        final byte[] hashlow;
+        final long time;
+        final long seq;
+
+        Orphan(byte[] hashlow, long time, long seq) {
+            this.hashlow = hashlow;
+            this.time = time;
+            this.seq = seq;
+        }
+    }
 
     public OrphanPool(KVSource<byte[], byte[]> orphan) {
         this.orphanSource = orphan;
@@ -49,63 +78,140 @@ public class OrphanPool {
 
     public void init() {
         this.orphanSource.init();
-        if (orphanSource.get(ORPHAN_SIZE) == null) {
-            this.orphanSource.put(ORPHAN_SIZE, BytesUtils.longToBytes(0, false));
+        if (orphanSource.get(ORPHAN_SIZE) != null) {
+            orphanSource.delete(ORPHAN_SIZE);
         }
+        rebuild();
     }
 
     public void reset() {
         this.orphanSource.reset();
-        this.orphanSource.put(ORPHAN_SIZE, BytesUtils.longToBytes(0, false));
+        rebuild();
     }
 
-    public List<Address> getOrphan(long num) {
-        List<Address> res = new ArrayList<>();
-        if (orphanSource.get(ORPHAN_SIZE) == null || getOrphanSize() == 0) {
-            return null;
-        } else {
-            long orphanSize = getOrphanSize();
-            long addNum = Math.min(orphanSize, num);
-            byte[] key = BytesUtils.of(ORPHAN_PREFEX);
-            List<byte[]> ans = orphanSource.prefixKeyLookup(key, key.length);
-            for (byte[] an : ans) {
-                if (addNum == 0) {
-                    break;
-                }
-                // TODO:判断时间
-                addNum--;
-                res.add(new Address(BytesUtils.subArray(an, 1, 32), XdagField.FieldType.XDAG_FIELD_OUT));
+    /** 磁盘上的写入由数据库批次回滚 这里只记录内存索引的修改 */
+    public synchronized void beginBatch() {
+        undo = new ArrayDeque<>();
+        undoNextSeq = nextSeq.get();
+    }
+
+    public synchronized void commitBatch() {
+        undo = null;
+    }
+
+    public synchronized void rollbackBatch() {
+        if (undo == null) {
+            return;
+        }
+        while (!undo.isEmpty()) {
+            Orphan[] change = undo.pop();
+            if (change[1] != null) {
+                unindex(change[1]);
+            }
+            if (change[0] != null) {
+                index(change[0]);
             }
+        }
+        nextSeq.set(undoNextSeq);
+        undo = null;
+    }
+
+    /** 用after替换before 任一个可以为null */
+    private void replace(Orphan before, Orphan after) {
+        if (before != null) {
+            unindex(before);
+        }
+        if (after != null) {
+            index(after);
+        }
+        if (undo != null) {
+            undo.push(new Orphan[] { before, after });
+        }
+    }
+
+    /** 从磁盘重建内存索引 旧版本没有时间与序号的记录按扫描顺序排在最前. 只在启动时调用 */
+    public synchronized void rebuild() {
+        bySeq.clear();
+        byHash.clear();
+        List<Orphan> legacy = new ArrayList<>();
+        long[] maxSeq = { -1 };
+        orphanSource.prefixScan(BytesUtils.of(ORPHAN_PREFEX), (key, value) -> {
+            byte[] hashlow = BytesUtils.subArray(key, 1, 32);
+            if (value == null || value.length < 16) {
+                legacy.add(new Orphan(hashlow, 0, 0));
+            } else {
+                Orphan orphan = new Orphan(hashlow, BytesUtils.bytesToLong(value, 0, false),
+                        BytesUtils.bytesToLong(value, 8, false));
+                index(orphan);
+                maxSeq[0] = Math.max(maxSeq[0], orphan.seq);
+            }
+            return true;
+        });
+        long seq = -legacy.size();
+        for (Orphan orphan : legacy) {
+            index(new Orphan(orphan.hashlow, 0, seq++));
+        }
+        nextSeq.set(maxSeq[0] + 1);
+        log.debug("orphan index rebuilt, size:{}", byHash.size());
+    }
+
+    private void index(Orphan orphan) {
+        bySeq.put(orphan.seq, orphan);
+        byHash.put(new ByteArrayWrapper(orphan.hashlow), orphan);
+    }
+
+    private void unindex(Orphan orphan) {
+        bySeq.remove(orphan.seq);
+        byHash.remove(new ByteArrayWrapper(orphan.hashlow));
+    }
+
+    /** 按到达顺序取最多num个时间早于sendTime的orphan */
+    public List<Address> getOrphan(long num, long sendTime) {
+        if (byHash.isEmpty()) {
+            return null;
+        }
+        List<Address> res = new ArrayList<>();
+        if (num <= 0) {
             return res;
         }
+        for (Orphan orphan : bySeq.values()) {
+            if (orphan.time >= sendTime) {
+                continue;
+            }
+            res.add(new Address(orphan.hashlow, XdagField.FieldType.XDAG_FIELD_OUT));
+            if (res.size() >= num) {
+                break;
+            }
+        }
+        return res;
+    }
+
+    public List<Address> getOrphan(long num) {
+        return getOrphan(num, Long.MAX_VALUE);
     }
 
     public synchronized void deleteByHash(byte[] hashlow) {
         log.debug("deleteByhash");
         orphanSource.delete(BytesUtils.merge(ORPHAN_PREFEX, hashlow));
-        long currentsize = BytesUtils.bytesToLong(orphanSource.get(ORPHAN_SIZE), 0, false);
-        orphanSource.put(ORPHAN_SIZE, BytesUtils.longToBytes(currentsize - 1, false));
+        Orphan orphan = byHash.get(new ByteArrayWrapper(hashlow));
+        if (orphan != null) {
+            replace(orphan, null);
+        }
     }
 
     public synchronized void addOrphan(Block block) {
-        orphanSource.put(BytesUtils.merge(ORPHAN_PREFEX, block.getHashLow()), new byte[0]);
-        long currentsize = BytesUtils.bytesToLong(orphanSource.get(ORPHAN_SIZE), 0, false);
-        log.debug("orphan current size:" + currentsize);
-        log.debug(":" + Hex.toHexString(orphanSource.get(ORPHAN_SIZE)));
-        orphanSource.put(ORPHAN_SIZE, BytesUtils.longToBytes(currentsize + 1, false));
+        Orphan orphan = new Orphan(block.getHashLow(), block.getTimestamp(), nextSeq.getAndIncrement());
+        orphanSource.put(BytesUtils.merge(ORPHAN_PREFEX, block.getHashLow()),
+                BytesUtils.merge(BytesUtils.longToBytes(orphan.time, false), BytesUtils.longToBytes(orphan.seq, false)));
+        replace(byHash.get(new ByteArrayWrapper(orphan.hashlow)), orphan);
+        log.debug("orphan current size:" + byHash.size());
     }
 
     public long getOrphanSize() {
-        long currentsize = BytesUtils.bytesToLong(orphanSource.get(ORPHAN_SIZE), 0, false);
-        log.debug("current orphan size:" + currentsize);
-        log.debug("Hex:" + Hex.toHexString(orphanSource.get(ORPHAN_SIZE)));
-        return currentsize;
+        return byHash.size();
     }
 
     public boolean containsKey(byte[] hashlow) {
-        if (orphanSource.get(BytesUtils.merge(ORPHAN_PREFEX, hashlow)) != null) {
-            return true;
-        }
-        return false;
+        return byHash.containsKey(new ByteArrayWrapper(hashlow));
     }
 }
@@ -23,13 +23,14 @@
  */
 package io.xdag.mine;
 
+import static io.xdag.config.Constants.CONFIRMATIONS_COUNT;
 import static io.xdag.mine.miner.MinerStates.MINER_ACTIVE;
 
 import java.net.InetSocketAddress;
 import java.util.Date;
-import java.util.List;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 import org.apache.commons.codec.binary.Hex;
 
@@ -113,8 +114,8 @@ public class MinerChannel {
 
     private MinerManager minerManager;
 
-    /** 存放的是连续16个任务本地计算的最大难度 每一轮放的都是最小hash 计算出来的diffs */
-    private List<Double> maxDiffs = new CopyOnWriteArrayList<>();
+    /** 存放的是连续16个任务本地计算的最大难度 每一轮放的都是最小hash 计算出来的diffs 以double的位模式保存 */
+    private final AtomicLongArray maxDiffs = new AtomicLongArray(CONFIRMATIONS_COUNT);
 
     /** 记录的是当前任务所有难度之和，每当接收到一个新的nonce 会更新这个 */
     @Getter
@@ -152,11 +153,6 @@ public class MinerChannel {
 
         this.blockStore = kernel.getBlockStore();
         this.minerManager = kernel.getMinerManager();
-
-        // 容器的初始化
-        for (int i = 0; i < 16; i++) {
-            maxDiffs.add(0.0);
-        }
     }
 
     /**
@@ -281,10 +277,17 @@ public class MinerChannel {
         sharesCounts += i;
     }
 
-    /** 矿池发送给矿工的任务 */
-    public void sendTaskToMiner(XdagField[] fields) {
-        byte[] bytes = BytesUtils.merge(fields[0].getData(), fields[1].getData());
-        miner03.sendMessage(bytes);
+    /** 矿池发送给矿工的任务 在这个channel自己的event loop上组装和加密 发送完成后调用onSent */
+    public void sendTaskToMiner(XdagField[] fields, Runnable onSent) {
+        try {
+            ctx.executor().execute(() -> {
+                byte[] bytes = BytesUtils.merge(fields[0].getData(), fields[1].getData());
+                miner03.sendMessage(bytes).addListener(future -> onSent.run());
+            });
+        } catch (RejectedExecutionException e) {
+            log.debug("channel {} closed, task not sent", inetAddress);
+            onSent.run();
+        }
     }
 
     /** 矿池发送余额给矿工 */
@@ -317,11 +320,11 @@ public class MinerChannel {
     }
 
     public void setMaxDiffs(int index, double diff) {
-        maxDiffs.set(index, diff);
+        maxDiffs.set(index, Double.doubleToRawLongBits(diff));
     }
 
     public double getMaxDiffs(int index) {
-        return maxDiffs.get(index);
+        return Double.longBitsToDouble(maxDiffs.get(index));
     }
 
     public void addBoundedTaskCounter() {
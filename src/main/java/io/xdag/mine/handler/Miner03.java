@@ -27,6 +27,7 @@ import java.io.IOException;
 
 import org.spongycastle.util.encoders.Hex;
 
+import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.SimpleChannelInboundHandler;
 import io.xdag.Kernel;
@@ -139,8 +140,8 @@ public class Miner03 extends SimpleChannelInboundHandler<Message> {
     }
 
     /** 发送任务消息 */
-    public void sendMessage(byte[] bytes) {
-        ctx.channel().writeAndFlush(bytes);
+    public ChannelFuture sendMessage(byte[] bytes) {
+        return ctx.channel().writeAndFlush(bytes);
     }
 
     public synchronized void dropConnection() {
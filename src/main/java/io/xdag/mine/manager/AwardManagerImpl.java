@@ -43,9 +43,9 @@ import io.xdag.core.Block;
 import io.xdag.core.BlockWrapper;
 import io.xdag.core.Blockchain;
 import io.xdag.crypto.ECKey;
+import io.xdag.db.store.AccountStore;
 import io.xdag.mine.miner.Miner;
 import io.xdag.mine.miner.MinerStates;
-import io.xdag.utils.BigDecimalUtils;
 import io.xdag.utils.ByteArrayWrapper;
 import io.xdag.utils.BytesUtils;
 import io.xdag.utils.FastByteComparisons;
@@ -133,28 +133,28 @@ public class AwardManagerImpl implements AwardManager {
 
     /** 给矿池设置一些支付上的参数 */
     private void setPoolConfig() {
-        poolRation = BigDecimalUtils.div(config.getPoolRation(), 100);
+        poolRation = config.getPoolRation() / 100;
         if (poolRation < 0) {
             poolRation = 0;
         } else if (poolRation > 1) {
             poolRation = 1;
         }
 
-        minerRewardRation = BigDecimalUtils.div(config.getRewardRation(), 100);
+        minerRewardRation = config.getRewardRation() / 100;
         if (minerRewardRation < 0) {
             minerRewardRation = 0;
         } else if (poolRation + minerRewardRation > 1) {
             minerRewardRation = 1 - poolRation;
         }
 
-        directRation = BigDecimalUtils.div(config.getDirectRation(), 100);
+        directRation = config.getDirectRation() / 100;
         if (directRation < 0) {
             directRation = 0;
         } else if (poolRation + minerRewardRation + directRation > 1) {
             directRation = 1 - poolRation - minerRewardRation;
         }
 
-        fundRation = BigDecimalUtils.div(config.getFundRation(), 100);
+        fundRation = config.getFundRation() / 100;
         if (fundRation < 0) {
             fundRation = 0;
         } else if (poolRation + minerRewardRation + directRation + fundRation > 1) {
@@ -240,9 +240,12 @@ public class AwardManagerImpl implements AwardManager {
 
         // 获取到这个区块 查询时要把前面的置0
         byte[] hashlow = BytesUtils.fixBytes(hash, 8, 24);
-        Block block = blockchain.getBlockByHash(hashlow, false);
+        // 地址块的余额与密钥从账户索引的快照中读取
+        AccountStore accountStore = kernel.getAccountStore();
+        long balance = accountStore.getAccountAmount(hashlow);
+        Block block = balance >= 0 ? null : blockchain.getBlockByHash(hashlow, false);
 
-        keyPos = kernel.getBlockStore().getBlockKeyIndex(hashlow);
+        keyPos = accountStore.getAccountKeyIndex(hashlow);
 
         if (keyPos < 0) {
             keyPos = blockchain.getMemAccount().get(new ByteArrayWrapper(hash)) != null
@@ -250,12 +253,15 @@ public class AwardManagerImpl implements AwardManager {
                     : -2;
         }
 
-        if (block == null) {
-            log.debug("can't find the block");
-            return -3;
+        if (balance < 0) {
+            if (block == null) {
+                log.debug("can't find the block");
+                return -3;
+            }
+            balance = block.getAmount();
         }
 
-        payData.balance = block.getAmount();
+        payData.balance = balance;
 
         if (payData.balance <= 0) {
             log.debug("no main block,can't pay");
@@ -263,7 +269,7 @@ public class AwardManagerImpl implements AwardManager {
         }
 
         // 计算矿池部分的收益
-        payData.poolFee = BigDecimalUtils.mul(payData.balance, poolRation);
+        payData.poolFee = (long) (payData.balance * poolRation);
         payData.unusedBalance = payData.balance - payData.poolFee;
 
         // 进行各部分奖励的计算
@@ -319,7 +325,7 @@ public class AwardManagerImpl implements AwardManager {
                 payData.rewardMiner = miner.getAddressHash();
 
                 // 有可以出块的矿工 分配矿工的奖励
-                payData.minerReward = BigDecimalUtils.mul(payData.balance, minerRewardRation);
+                payData.minerReward = (long) (payData.balance * minerRewardRation);
                 payData.unusedBalance -= payData.minerReward;
             }
         }
@@ -336,7 +342,7 @@ public class AwardManagerImpl implements AwardManager {
 
         // 要进行参与奖励的支付
         if (payData.diffSums > 0) {
-            payData.minerReward = BigDecimalUtils.mul(payData.balance, directRation);
+            payData.directIncome = (long) (payData.balance * directRation);
             payData.unusedBalance -= payData.directIncome;
         }
 
@@ -402,19 +408,7 @@ public class AwardManagerImpl implements AwardManager {
         // 不断循环 支付给矿工
         for (Miner miner : miners) {
             // 保存的是一个矿工所有的收入
-            long paymentSum = 0L;
-            // 根据以前的情况分发奖励
-            if (payData.prevDiffSums > 0) {
-                double per = BigDecimalUtils.div(miner.getPrevDiffSum(time), payData.prevDiffSums);
-                // paymentSum += (long)payData.unusedBalance * per;
-                paymentSum += BigDecimalUtils.mul(payData.unusedBalance, per);
-            }
-            // 计算当前这一轮
-            if (payData.diffSums > 0) {
-                double per = BigDecimalUtils.div(miner.getDiffSum(time), payData.diffSums);
-                // paymentSum += (long)payData.directIncome * per;
-                paymentSum += BigDecimalUtils.mul(payData.directIncome, per);
-            }
+            long paymentSum = calculatePayment(payData, miner.getPrevDiffSum(time), miner.getDiffSum(time));
             if (payData.rewardMiner != null
                     && FastByteComparisons.compareTo(payData.rewardMiner, 8, 24, miner.getAddressHash(), 8, 24) == 0) {
                 paymentSum += payData.minerReward;
@@ -438,6 +432,29 @@ public class AwardManagerImpl implements AwardManager {
         }
     }
 
+    /**
+     * 按矿工的难度占比计算应得的收入 与C中的计算方式一致 每一步的结果截断为整数
+     *
+     * @param prevDiffSum
+     *            矿工以前所有难度之和
+     * @param diffSum
+     *            矿工本轮的难度
+     */
+    static long calculatePayment(PayData payData, double prevDiffSum, double diffSum) {
+        long paymentSum = 0L;
+        // 根据以前的情况分发奖励
+        if (payData.prevDiffSums > 0) {
+            double per = prevDiffSum / payData.prevDiffSums;
+            paymentSum += payData.unusedBalance * per;
+        }
+        // 计算当前这一轮
+        if (payData.diffSums > 0) {
+            double per = diffSum / payData.diffSums;
+            paymentSum += payData.directIncome * per;
+        }
+        return paymentSum;
+    }
+
     public void transaction(byte[] hashLow, ArrayList<Address> receipt, long payAmount, int keypos) {
         log.debug("All Payment: {}", payAmount);
         for (Address address : receipt) {
@@ -53,4 +53,7 @@ public interface MinerManager {
     Map<InetSocketAddress, MinerChannel> getActivateMinerChannels();
 
     void removeUnactivateChannel(MinerChannel channel);
+
+    /** 新任务发送到所有矿工的耗时分布 */
+    TaskSendStats getTaskSendStats();
 }
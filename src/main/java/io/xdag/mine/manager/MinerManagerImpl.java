@@ -24,6 +24,8 @@
 package io.xdag.mine.manager;
 
 import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ScheduledExecutorService;
@@ -54,6 +56,9 @@ public class MinerManagerImpl implements MinerManager {
 
     private Task currentTask = null;
 
+    /** 每轮任务第一个到最后一个矿工发送完成的间隔 */
+    private final TaskSendStats taskSendStats = new TaskSendStats();
+
     @Setter
     private PoW poW;
     private Kernel kernel;
@@ -155,23 +160,32 @@ public class MinerManagerImpl implements MinerManager {
         }
     }
 
-    /** 每一轮任务刚发出去的时候 会用这个跟新所有miner的额情况 */
+    /** 每一轮任务刚发出去的时候 会用这个跟新所有miner的额情况 任务的加密和发送分散到各个channel的event loop上 */
     @Override
     public void updateNewTaskandBroadcast(Task task) {
         currentTask = task;
+        List<MinerChannel> channels = new ArrayList<>(activateMinerChannels.size());
         for (MinerChannel channel : activateMinerChannels.values()) {
             if (channel.isActive()) {
-
-                channel.setTaskIndex(currentTask.getTaskIndex());
-                if (channel.getMiner().getTaskTime() < currentTask.getTaskTime()) {
-                    channel.getMiner().setTaskTime(currentTask.getTaskTime());
-                }
-                channel.sendTaskToMiner(currentTask.getTask());
-                channel.setSharesCounts(0);
+                channels.add(channel);
+            }
+        }
+        TaskSendStats.Round round = taskSendStats.newRound(channels.size());
+        for (MinerChannel channel : channels) {
+            channel.setTaskIndex(currentTask.getTaskIndex());
+            if (channel.getMiner().getTaskTime() < currentTask.getTaskTime()) {
+                channel.getMiner().setTaskTime(currentTask.getTaskTime());
             }
+            channel.setSharesCounts(0);
+            channel.sendTaskToMiner(currentTask.getTask(), round::onSent);
         }
     }
 
+    @Override
+    public TaskSendStats getTaskSendStats() {
+        return taskSendStats;
+    }
+
     @Override
     public Map<ByteArrayWrapper, Miner> getActivateMiners() {
         return activateMiners;
@@ -0,0 +1,123 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2030 The XdagJ Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.xdag.mine.manager;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 每一轮新任务 第一个矿工和最后一个矿工发送完成之间的时间分布
+ */
+public class TaskSendStats {
+    /** 第0个桶记录小于1毫秒 第i个桶记录[2^(i-1), 2^i)毫秒 最后一个桶记录更大的 */
+    public static final int BUCKETS = 16;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong rounds = new AtomicLong();
+    private final AtomicLong totalMillis = new AtomicLong();
+    private final AtomicLong maxMillis = new AtomicLong();
+
+    /** 开始一轮广播 channels是需要发送的矿工数 */
+    public Round newRound(int channels) {
+        return new Round(channels);
+    }
+
+    public void record(long millis) {
+        int bucket = millis <= 0 ? 0 : Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(millis));
+        buckets.incrementAndGet(bucket);
+        rounds.incrementAndGet();
+        totalMillis.addAndGet(millis);
+        maxMillis.accumulateAndGet(millis, Math::max);
+    }
+
+    public long getRounds() {
+        return rounds.get();
+    }
+
+    public long getMaxMillis() {
+        return maxMillis.get();
+    }
+
+    public double getAvgMillis() {
+        long n = rounds.get();
+        return n == 0 ? 0 : (double) totalMillis.get() / n;
+    }
+
+    public long[] getBuckets() {
+        long[] res = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            res[i] = buckets.get(i);
+        }
+        return res;
+    }
+
+    /** 至少p比例的轮次不超过的毫秒数(桶的上界) */
+    public long getPercentileMillis(double p) {
+        long[] counts = getBuckets();
+        long n = 0;
+        for (long c : counts) {
+            n += c;
+        }
+        if (n == 0) {
+            return 0;
+        }
+        long need = (long) Math.ceil(n * p);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= need) {
+                return i == 0 ? 1 : 1L << i;
+            }
+        }
+        return maxMillis.get();
+    }
+
+    @Override
+    public String toString() {
+        return "rounds " + getRounds()
+                + " avg " + String.format("%.2f", getAvgMillis())
+                + "ms p50<" + getPercentileMillis(0.5)
+                + "ms p99<" + getPercentileMillis(0.99)
+                + "ms max " + getMaxMillis() + "ms";
+    }
+
+    /** 一轮广播 每个矿工发送完成时调用onSent */
+    public class Round {
+        private final AtomicInteger remaining;
+        private final AtomicLong first = new AtomicLong();
+
+        Round(int channels) {
+            this.remaining = new AtomicInteger(channels);
+        }
+
+        public void onSent() {
+            long now = System.nanoTime();
+            first.compareAndSet(0, now);
+            if (remaining.decrementAndGet() == 0) {
+                record((now - first.get()) / 1_000_000);
+            }
+        }
+    }
+}
@@ -23,15 +23,16 @@
  */
 package io.xdag.mine.miner;
 
+import static io.xdag.config.Constants.CONFIRMATIONS_COUNT;
+
 import java.net.InetSocketAddress;
 import java.sql.Time;
 import java.util.Calendar;
 import java.util.Date;
-import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 import org.spongycastle.util.encoders.Hex;
 
@@ -63,8 +64,8 @@ public class Miner {
     private double prevDiff;
     /** 记录prevDiff的次数 实际上类似于进行了多少次计算 */
     private int prevDiffCounts;
-    /** 存放的是连续16个任务本地计算的最大难度 每一轮放的都是最小hash 计算出来的diffs */
-    private List<Double> maxDiffs = new CopyOnWriteArrayList<>();
+    /** 存放的是连续16个任务本地计算的最大难度 每一轮放的都是最小hash 计算出来的diffs 以double的位模式保存 */
+    private final AtomicLongArray maxDiffs = new AtomicLongArray(CONFIRMATIONS_COUNT);
     /** 记录这个矿工的状态 */
     private MinerStates minerStates;
     /** 类似于id 也是保存的nonce +hasholow的值 */
@@ -79,10 +80,15 @@ public class Miner {
     /** 保存的是这个矿工对应的channel */
     private Map<InetSocketAddress, MinerChannel> channels = new ConcurrentHashMap<>();
 
-    /** 分别存放的是本轮中 的难度 以及前面所有计算的难度 */
-    private Map<Long, Double> diffSum = new ConcurrentHashMap<>();
+    /**
+     * 分别存放的是本轮中 的难度 以及前面所有计算的难度 按支付区块的时间放在16个槽位里
+     * 只保留支付窗口内的数据 旧的时间会被新的覆盖 只在支付线程中读写
+     */
+    private final long[] diffSumTimes = new long[CONFIRMATIONS_COUNT];
+
+    private final double[] diffSum = new double[CONFIRMATIONS_COUNT];
 
-    private Map<Long, Double> prevDiffSum = new ConcurrentHashMap<>();
+    private final double[] prevDiffSum = new double[CONFIRMATIONS_COUNT];
 
     public Miner(byte[] addressHash) {
         log.debug("init a new miner {}", Hex.toHexString(addressHash));
@@ -93,11 +99,6 @@ public class Miner {
         this.meanLogDiff = 0.0;
         this.registeredTime = Calendar.getInstance().getTime();
         boundedTaskCounter = 0;
-
-        // 容器的初始化
-        for (int i = 0; i < 16; i++) {
-            maxDiffs.add(0.0);
-        }
     }
 
     public byte[] getAddressHash() {
@@ -128,8 +129,8 @@ public class Miner {
     /** 判断这个miner 是不是可以被移除 */
     public boolean canRemove() {
         if (minerStates == MinerStates.MINER_ARCHIVE && connChannelCounts.get() == 0) {
-            for (Double maxDiff : maxDiffs) {
-                if (maxDiff != 0.0) {
+            for (int i = 0; i < CONFIRMATIONS_COUNT; i++) {
+                if (getMaxDiffs(i) != 0.0) {
                     return false;
                 }
             }
@@ -148,7 +149,7 @@ public class Miner {
     }
 
     public double getMaxDiffs(int index) {
-        return maxDiffs.get(index);
+        return Double.longBitsToDouble(maxDiffs.get(index));
     }
 
     public void addPrevDiff(double i) {
@@ -160,7 +161,7 @@ public class Miner {
     }
 
     public void setMaxDiffs(int index, double diff) {
-        maxDiffs.set(index, diff);
+        maxDiffs.set(index, Double.doubleToRawLongBits(diff));
     }
 
     public double getPrevDiff() {
@@ -187,30 +188,42 @@ public class Miner {
         this.registeredTime = registeredTime;
     }
 
+    /** 找到时间对应的槽位 槽位里是更早的时间时 清空后复用. 槽位已被更新的时间占用时返回-1 过期的时间不能覆盖当前窗口 */
+    private int diffSumSlot(long key) {
+        int slot = (int) ((key >> 16) & (CONFIRMATIONS_COUNT - 1));
+        if (diffSumTimes[slot] != key) {
+            if (key < diffSumTimes[slot]) {
+                return -1;
+            }
+            diffSumTimes[slot] = key;
+            diffSum[slot] = 0.0;
+            prevDiffSum[slot] = 0.0;
+        }
+        return slot;
+    }
+
     public void setDiffSum(long key, double value) {
-        double temp = 0.0;
-        if (diffSum.get(key) != null && (temp = diffSum.get(key)) == 0.0) {
-            diffSum.put(key, value);
+        int slot = diffSumSlot(key);
+        if (slot >= 0) {
+            diffSum[slot] += value;
         }
-        temp += value;
-        diffSum.put(key, temp);
     }
 
     public void setPrevDiffSum(long key, double value) {
-        double temp = 0.0;
-        if (prevDiffSum.get(key) != null && (temp = prevDiffSum.get(key)) == 0.0) {
-            prevDiffSum.put(key, value);
+        int slot = diffSumSlot(key);
+        if (slot >= 0) {
+            prevDiffSum[slot] += value;
         }
-        temp += value;
-        prevDiffSum.put(key, temp);
     }
 
     public double getDiffSum(long key) {
-        return diffSum.get(key);
+        int slot = (int) ((key >> 16) & (CONFIRMATIONS_COUNT - 1));
+        return diffSumTimes[slot] == key ? diffSum[slot] : 0.0;
     }
 
     public double getPrevDiffSum(long key) {
-        return prevDiffSum.get(key);
+        int slot = (int) ((key >> 16) & (CONFIRMATIONS_COUNT - 1));
+        return diffSumTimes[slot] == key ? prevDiffSum[slot] : 0.0;
     }
 
     public byte[] getAddressHaashLow() {
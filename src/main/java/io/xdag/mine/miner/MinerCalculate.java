@@ -32,7 +32,6 @@ import io.xdag.config.Constants;
 import io.xdag.consensus.Task;
 import io.xdag.mine.MinerChannel;
 import io.xdag.utils.BasicUtils;
-import io.xdag.utils.BigDecimalUtils;
 import io.xdag.utils.BytesUtils;
 import io.xdag.utils.FormatDateUtils;
 import io.xdag.utils.FastByteComparisons;
@@ -61,7 +60,7 @@ public class MinerCalculate {
         double temp;
         for (int i = 0; i < CONFIRMATIONS_COUNT; i++) {
             if ((temp = miner.getMaxDiffs(i)) > 0) {
-                sum = BigDecimalUtils.add(sum, temp);
+                sum += temp;
                 miner.setMaxDiffs(i, 0.0);
                 ++diffcount;
             }
@@ -78,7 +77,7 @@ public class MinerCalculate {
         int count = miner.getPrevDiffCounts();
         for (int i = 0; i < CONFIRMATIONS_COUNT; i++) {
             if (miner.getMaxDiffs(i) > 0) {
-                sum = BigDecimalUtils.add(sum, miner.getMaxDiffs(i));
+                sum += miner.getMaxDiffs(i);
             }
             ++count;
         }
@@ -90,7 +89,7 @@ public class MinerCalculate {
         int count = channel.getPrevDiffCounts();
         for (int i = 0; i < CONFIRMATIONS_COUNT; i++) {
             if (channel.getMaxDiffs(i) > 0) {
-                sum = BigDecimalUtils.add(sum, channel.getMaxDiffs(i));
+                sum += channel.getMaxDiffs(i);
             }
             ++count;
         }
@@ -142,6 +141,22 @@ public class MinerCalculate {
         System.out.println(res);
     }
 
+    /**
+     * 由share的hash计算难度 对应C中的 46 - log(hash[3] + hash[2] * 2^-64)
+     *
+     * @param hash
+     *            提交的nonce 计算后的hash
+     */
+    public static double shareDiff(byte[] hash) {
+        double diff = BytesUtils.unsignedToDouble(BytesUtils.bytesToLong(hash, 8, false));
+        diff *= Math.pow(2, -64);
+        diff += BytesUtils.unsignedToDouble(BytesUtils.bytesToLong(hash, 0, false));
+        if (diff < 1) {
+            diff = 1;
+        }
+        return 46 - Math.log(diff);
+    }
+
     /**
      * 根据一个矿工计算的hash 为他计算一个难度
      *
@@ -158,13 +173,7 @@ public class MinerCalculate {
             // 获取到位置
             int i = (int) (((currentTaskTime >> 16) + 1) & 0xf);
             // int i = (int) (((currentTaskTime>> 16) +1 ) & 7);
-            diff = BytesUtils.hexBytesToDouble(hash, 8, false);
-            diff *= Math.pow(2, -64);
-            diff += BytesUtils.hexBytesToDouble(hash, 0, false);
-            if (diff < 1) {
-                diff = 1;
-            }
-            diff = 46 - Math.log(diff);
+            diff = shareDiff(hash);
             if (minerTaskTime < currentTaskTime) {
                 miner.setTaskTime(currentTaskTime);
                 if (miner.getMaxDiffs(i) > 0) {
@@ -189,14 +198,7 @@ public class MinerCalculate {
             // 获取到位置
             int i = (int) (((currentTaskTime >> 16) + 1) & 0xf);
             // int i = (int) (((currentTaskTime>> 16) +1 ) & 7);
-            diff = BytesUtils.hexBytesToDouble(hash, 8, false);
-            diff *= Math.pow(2, -64);
-            diff += BytesUtils.hexBytesToDouble(hash, 0, false);
-
-            if (diff < 1) {
-                diff = 1;
-            }
-            diff = 46 - Math.log(diff);
+            diff = shareDiff(hash);
             if (channelTaskTime < currentTaskTime) {
                 channel.setTaskTime(currentTaskTime);
                 if (channel.getMaxDiffs(i) > 0) {
@@ -223,8 +225,7 @@ public class MinerCalculate {
 
     public static double welfordOnePass(double mean, double sample, int nsamples) {
         if (nsamples > 0) {
-            double temp = BigDecimalUtils.div(BigDecimalUtils.sub(sample, mean), nsamples);
-            mean = BigDecimalUtils.add(mean, temp);
+            mean += (sample - mean) / nsamples;
         }
         return mean;
     }
@@ -258,7 +259,7 @@ public class MinerCalculate {
             if (channelTime != 0) {
                 double meanLogDiff = movingAverageDouble(
                         channel.getMeanLogDiff(),
-                        BasicUtils.xdag_diff2log(BasicUtils.getDiffByHash(channel.getMinHash())),
+                        BasicUtils.xdag_diff2log(BasicUtils.getDiffByHash128(channel.getMinHash())),
                         channel.getBoundedTaskCounter());
                 log.debug("channel updateMeanLogDiff [{}]", meanLogDiff);
                 channel.setMeanLogDiff(meanLogDiff);
@@ -278,7 +279,7 @@ public class MinerCalculate {
             if (minerTaskTime != 0) {
                 double meanLogDiff = movingAverageDouble(
                         miner.getMeanLogDiff(),
-                        BasicUtils.xdag_diff2log(BasicUtils.getDiffByHash(miner.getLastMinHash())),
+                        BasicUtils.xdag_diff2log(BasicUtils.getDiffByHash128(miner.getLastMinHash())),
                         miner.getBoundedTaskCounter());
 
                 log.debug("miner updateMeanLogDiff [{}]", meanLogDiff);
@@ -71,11 +71,12 @@ public class XdagClient {
     // return new Node(ip,port);
     // }
 
-    /** Connects to the node and returns only upon connection close */
-    public void connect(String host, int port, XdagChannelInitializer xdagChannelInitializer) {
+    /** Connects to the node and returns only upon connection close, false if the connection failed */
+    public boolean connect(String host, int port, XdagChannelInitializer xdagChannelInitializer) {
         try {
             f = connectAsync(host, port, xdagChannelInitializer);
             f.sync();
+            return true;
         } catch (Exception e) {
             if (e instanceof IOException) {
                 log.debug(
@@ -84,6 +85,7 @@ public class XdagClient {
             } else {
                 log.error("Exception:", e);
             }
+            return false;
         }
     }
 
@@ -83,6 +83,9 @@ public class Xdag03 extends XdagHandler {
     ExecutorService sendThreads = new ScheduledThreadPoolExecutor(1, factory);
     List<ListenableFuture<Integer>> futures = new ArrayList<>();
     private XdagVersion version = XdagVersion.V03;
+    /** 合并对方节点列表的间隔 毫秒 */
+    private static final long NETDB_UPDATE_INTERVAL = 60 * 1000;
+    private long lastNetDBUpdate;
 
     public Xdag03(Kernel kernel, XdagChannel channel) {
         this.kernel = kernel;
@@ -129,6 +132,12 @@ public class Xdag03 extends XdagHandler {
         msgQueue.activate(ctx);
     }
 
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        msgQueue.writabilityChanged();
+        super.channelWritabilityChanged(ctx);
+    }
+
     @Override
     public void channelInactive(ChannelHandlerContext ctx) {
         log.debug("channel inactive:[{}] ", ctx.toString());
@@ -198,17 +207,20 @@ public class Xdag03 extends XdagHandler {
         log.debug("futures size:" + futures.size());
     }
 
-    /** Reply 可以不用处理 */
+    /** 区块请求的范围已发送完 */
     protected synchronized void processBlocksReply(BlocksReplyMessage msg) {
         log.debug("Process BlocksReply:" + msg);
         updateNetStatus(msg);
+        if (kernel.getSync() != null) {
+            kernel.getSync().onBlocksReply(channel, msg.getEndtime());
+        }
     }
 
     /** 将sumrequest的后8个字段填充为自己的sum 修改type类型为reply 发送 */
     protected synchronized void processSumRequest(SumRequestMessage msg) {
         updateNetStatus(msg);
         // byte[] sum = new byte[256];
-        byte[] sum = kernel.getBlockStore().getSimpleFileStore().loadSum(msg.getStarttime(), msg.getEndtime());
+        byte[] sum = kernel.getBlockStore().getFileSource().loadSum(msg.getStarttime(), msg.getEndtime());
         SumReplyMessage reply = new SumReplyMessage(msg.getEndtime(), msg.getRandom(), kernel.getNetStatus(), sum);
         sendMessage(reply);
     }
@@ -335,10 +347,11 @@ public class Xdag03 extends XdagHandler {
     public void updateNetStatus(AbstractMessage message) {
         NetStatus remoteNetStatus = message.getNetStatus();
         log.debug("Remote netstatus:" + remoteNetStatus);
-        synchronized (kernel.getNetStatus()) {
-            kernel.getNetStatus().updateNetStatus(remoteNetStatus);
-        }
-        synchronized (kernel.getNetDBMgr()) {
+        kernel.getNetStatus().updateNetStatus(remoteNetStatus);
+        // 节点列表变化慢 每个连接隔一段时间才解析合并一次
+        long now = System.currentTimeMillis();
+        if (now - lastNetDBUpdate >= NETDB_UPDATE_INTERVAL) {
+            lastNetDBUpdate = now;
             log.debug("update netdb");
             kernel.getNetDBMgr().updateNetDB(message.getNetDB());
         }
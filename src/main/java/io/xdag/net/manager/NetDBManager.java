@@ -46,6 +46,9 @@ import lombok.extern.slf4j.Slf4j;
 
 @Slf4j
 public class NetDBManager {
+    /** 地址簿容量 */
+    public static final int MAX_NETDB_SIZE = 4096;
+
     @Getter
     private String database;
 
@@ -66,7 +69,7 @@ public class NetDBManager {
         databaseWhite = MainNet ? config.getWhiteListDir() : config.getWhiteListDirTest();
         whiteUrl = MainNet ? WHITELIST_URL : WHITELIST_URL_TESTNET;
         whiteDB = new NetDB();
-        netDB = new NetDB();
+        netDB = new NetDB(MAX_NETDB_SIZE);
     }
 
     public void init() {
@@ -130,6 +133,20 @@ public class NetDBManager {
         }
     }
 
+    /** 连接成功或失败 更新地址的评分 */
+    public void onConnectSuccess(InetSocketAddress address) {
+        netDB.onSuccess(address);
+    }
+
+    public void onConnectFailure(InetSocketAddress address) {
+        netDB.onFailure(address);
+    }
+
+    /** 白名单中的种子节点不删除 */
+    public int removeStale() {
+        return netDB.removeStale(System.currentTimeMillis(), whiteDB);
+    }
+
     public boolean canAccept(InetSocketAddress address) {
         boolean res = whiteDB.contains(address);
         return res;
@@ -132,6 +132,9 @@ public class XdagChannelManager {
     public void onChannelActive(XdagChannel channel, Node node) {
         channel.setActive(true);
         activeChannels.put(node.getHexId(), channel);
+        if (kernel.getNetDBMgr() != null) {
+            kernel.getNetDBMgr().onConnectSuccess(node.getAddress());
+        }
         log.debug("activeChannel size:" + activeChannels.size());
     }
 
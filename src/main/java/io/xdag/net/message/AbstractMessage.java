@@ -59,8 +59,9 @@ public abstract class AbstractMessage extends Message {
     /** 获取对方节点的netstatus */
     @Setter
     protected NetStatus netStatus;
-    /** 获取对方节点的netdb */
+    /** 获取对方节点的netdb 用到时才解析 */
     protected NetDB netDB;
+    protected boolean hasNetDB;
     protected XdagMessageCodes codes;
 
     public AbstractMessage(
@@ -96,6 +97,13 @@ public abstract class AbstractMessage extends Message {
     }
 
     public NetDB getNetDB() {
+        if (netDB == null && hasNetDB) {
+            int length = getCommand() == SUMS_REPLY ? 6 : 14;
+            // 80 是sizeof(xdag_stats)
+            NetDB db = new NetDB();
+            db.parse(encoded, 144, length * 32 - 80);
+            netDB = db;
+        }
         return netDB;
     }
 
@@ -113,12 +121,7 @@ public abstract class AbstractMessage extends Message {
         long maintime = BytesUtils.bytesToLong(encoded, 136, true);
         netStatus = new NetStatus(maxdifficulty, totalnblocks, totalnmains, totalnhosts, maintime);
 
-        // test netdb
-        int length = getCommand() == SUMS_REPLY ? 6 : 14;
-        // 80 是sizeof(xdag_stats)
-        byte[] netdb = new byte[length * 32 - 80];
-        System.arraycopy(encoded, 144, netdb, 0, length * 32 - 80);
-        netDB = new NetDB(netdb);
+        hasNetDB = true;
 
         parsed = true;
     }
@@ -130,12 +133,12 @@ public abstract class AbstractMessage extends Message {
         long transportheader = (ttl << 8) | DNET_PKT_XDAG | (XDAG_BLOCK_SIZE << 16);
         long type = (codes.asByte() << 4) | XDAG_FIELD_NONCE.asByte();
 
-        BigInteger diff = netStatus.difficulty;
-        BigInteger maxDiff = netStatus.maxdifficulty;
-        long nmain = netStatus.nmain;
-        long totalMainNumber = netStatus.totalnmain;
-        long nblocks = netStatus.nblocks;
-        long totalBlockNumber = netStatus.totalnblocks;
+        BigInteger diff = netStatus.getDifficulty();
+        BigInteger maxDiff = netStatus.getMaxdifficulty();
+        long nmain = netStatus.getNmain();
+        long totalMainNumber = netStatus.getTotalnmain();
+        long nblocks = netStatus.getNblocks();
+        long totalBlockNumber = netStatus.getTotalnblocks();
 
         // TODO：后续根据ip替换
         String tmp = "04000000040000003ef4780100000000" + "7f000001611e7f000001b8227f0000015f767f000001d49d";
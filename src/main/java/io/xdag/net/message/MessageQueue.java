@@ -26,29 +26,37 @@ package io.xdag.net.message;
 import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
 import io.xdag.net.XdagChannel;
+import java.util.ArrayDeque;
+import java.util.Iterator;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
-import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.commons.lang3.concurrent.BasicThreadFactory;
 
+/**
+ * 消息入队后立即在channel的event loop上发送 每批只flush一次. 需要应答的请求最多同时有REQUEST_WINDOW个在途
+ * 超时后释放窗口 channel不可写时暂停 可写后继续.
+ */
 @Slf4j
 public class MessageQueue {
-
-    private static AtomicInteger cnt = new AtomicInteger(0);
-    public static final ScheduledExecutorService timer = new ScheduledThreadPoolExecutor(
-            4,
-            new BasicThreadFactory.Builder()
-                    .namingPattern("MessageQueueTimer-" + cnt.getAndIncrement())
-                    .daemon(true)
-                    .build());
-    boolean isRunning = false;
+    /** 同时在途的请求数 */
+    public static final int REQUEST_WINDOW = 8;
+    /** 每批最多写出的消息数 避免占用event loop太久 */
+    public static final int MAX_BATCH = 64;
+    /** 在途请求的超时检查周期 */
+    public static final long TIMEOUT_CHECK_MS = 1000;
+
+    volatile boolean isRunning = false;
     private Queue<MessageRoundtrip> requestQueue = new ConcurrentLinkedQueue<>();
     private Queue<MessageRoundtrip> respondQueue = new ConcurrentLinkedQueue<>();
+    /** 已发出等待应答的请求 只在event loop中访问 */
+    private final ArrayDeque<MessageRoundtrip> inFlight = new ArrayDeque<>();
+    /** inFlight的大小 供其他线程读取 */
+    private final AtomicInteger inFlightCount = new AtomicInteger();
+    private final AtomicBoolean drainScheduled = new AtomicBoolean(false);
     private ChannelHandlerContext ctx = null;
     private ScheduledFuture<?> timerTask;
     private XdagChannel channel;
@@ -59,14 +67,25 @@ public class MessageQueue {
 
     public void receivedMessage(Message msg) { // 负责打印记录信息 实际接收信息的业务操作在xdaghandler
         log.debug("MessageQueue接收到新消息");
-        if (requestQueue.peek() != null) {
-            MessageRoundtrip messageRoundtrip = requestQueue.peek();
+        if (ctx == null) {
+            return;
+        }
+        if (!ctx.executor().inEventLoop()) {
+            ctx.executor().execute(() -> receivedMessage(msg));
+            return;
+        }
+        Iterator<MessageRoundtrip> it = inFlight.iterator();
+        while (it.hasNext()) {
+            MessageRoundtrip messageRoundtrip = it.next();
             Message waitingMessage = messageRoundtrip.getMsg();
-
-            if (waitingMessage.getAnswerMessage() != null
-                    && msg.getClass() == waitingMessage.getAnswerMessage()) {
+            if (msg.getClass() == waitingMessage.getAnswerMessage()) {
                 messageRoundtrip.answer();
-                log.trace("Message round trip covered: [{}] ", messageRoundtrip.getMsg().getClass());
+                it.remove();
+                inFlightCount.decrementAndGet();
+                log.trace("Message round trip covered: [{}] ", waitingMessage.getClass());
+                // 窗口空出 继续发送排队的请求
+                drain();
+                break;
             }
         }
     }
@@ -74,26 +93,18 @@ public class MessageQueue {
     public void activate(ChannelHandlerContext ctx) {
         this.ctx = ctx;
         isRunning = true;
-        timerTask = timer.scheduleAtFixedRate(
+        timerTask = ctx.executor().scheduleAtFixedRate(
                 () -> {
                     try {
-                        nudgeQueue();
+                        expireRequests();
                     } catch (Throwable t) {
                         log.error("Unhandled exception", t);
                     }
                 },
-                10,
-                10,
-                // 10毫秒执行一次
+                TIMEOUT_CHECK_MS,
+                TIMEOUT_CHECK_MS,
                 TimeUnit.MILLISECONDS);
-    }
-
-    /** 每十毫秒执行一次 */
-    private void nudgeQueue() {
-        removeAnsweredMessage(requestQueue.peek());
-        // Now send the next message
-        sendToWire(respondQueue.poll());
-        sendToWire(requestQueue.peek());
+        scheduleDrain();
     }
 
     public void sendMessage(Message msg) {
@@ -104,35 +115,85 @@ public class MessageQueue {
         }
 
         if (msg.getAnswerMessage() != null) {
-
             requestQueue.add(new MessageRoundtrip(msg));
-            // log.debug("add new Request message current requestQueue size
-            // is:"+requestQueue.size());
         } else {
             respondQueue.add(new MessageRoundtrip(msg));
-            // log.debug("add new Response message current responseQueue size
-            // is:"+respondQueue.size());
+        }
+        scheduleDrain();
+    }
 
+    /** channel可写状态变化时调用 */
+    public void writabilityChanged() {
+        if (ctx != null && ctx.channel().isWritable()) {
+            scheduleDrain();
         }
     }
 
-    private void sendToWire(MessageRoundtrip messageRoundtrip) {
-        if (messageRoundtrip != null && messageRoundtrip.getRetryTimes() == 0) {
-            // TODO: retry logic || messageRoundtrip.hasToRetry()){
-            Message msg = messageRoundtrip.getMsg();
-            // log.debug("Sent to Wire with the message,msg:"+msg.getCommand());
-            ctx.writeAndFlush(msg).addListener(ChannelFutureListener.FIRE_EXCEPTION_ON_FAILURE);
-
-            if (msg.getAnswerMessage() != null) {
-                messageRoundtrip.incRetryTimes();
-                messageRoundtrip.saveTime();
+    /** 同一时间只在event loop上排一个发送任务 */
+    private void scheduleDrain() {
+        if (ctx == null || !isRunning) {
+            return;
+        }
+        if (drainScheduled.compareAndSet(false, true)) {
+            ctx.executor().execute(() -> {
+                drainScheduled.set(false);
+                drain();
+            });
+        }
+    }
+
+    /** 在event loop上写出排队的消息 最后统一flush */
+    private void drain() {
+        if (!isRunning) {
+            return;
+        }
+        int written = 0;
+        while (written < MAX_BATCH && ctx.channel().isWritable()) {
+            MessageRoundtrip messageRoundtrip = respondQueue.poll();
+            if (messageRoundtrip == null && inFlight.size() < REQUEST_WINDOW) {
+                messageRoundtrip = requestQueue.poll();
+            }
+            if (messageRoundtrip == null) {
+                break;
             }
+            sendToWire(messageRoundtrip);
+            written++;
+        }
+        if (written > 0) {
+            ctx.flush();
+        }
+        if (written == MAX_BATCH && ctx.channel().isWritable()) {
+            // 还有剩余 让出event loop后继续
+            scheduleDrain();
         }
     }
 
-    private void removeAnsweredMessage(MessageRoundtrip messageRoundtrip) {
-        if (messageRoundtrip != null && messageRoundtrip.isAnswered()) {
-            requestQueue.remove();
+    private void sendToWire(MessageRoundtrip messageRoundtrip) {
+        Message msg = messageRoundtrip.getMsg();
+        ctx.write(msg).addListener(ChannelFutureListener.FIRE_EXCEPTION_ON_FAILURE);
+        if (msg.getAnswerMessage() != null) {
+            messageRoundtrip.incRetryTimes();
+            messageRoundtrip.saveTime();
+            inFlight.add(messageRoundtrip);
+            inFlightCount.incrementAndGet();
+        }
+    }
+
+    /** 超时未应答的请求释放窗口 */
+    private void expireRequests() {
+        boolean expired = false;
+        Iterator<MessageRoundtrip> it = inFlight.iterator();
+        while (it.hasNext()) {
+            MessageRoundtrip messageRoundtrip = it.next();
+            if (messageRoundtrip.hasToRetry()) {
+                log.debug("{}: request [{}] timeout", channel, messageRoundtrip.getMsg().getCommand());
+                it.remove();
+                inFlightCount.decrementAndGet();
+                expired = true;
+            }
+        }
+        if (expired) {
+            drain();
         }
     }
 
@@ -156,6 +217,6 @@ public class MessageQueue {
     }
 
     public int size() {
-        return requestQueue.size() + respondQueue.size();
+        return requestQueue.size() + respondQueue.size() + inFlightCount.get();
     }
 }
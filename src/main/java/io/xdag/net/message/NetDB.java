@@ -28,9 +28,15 @@ import static io.xdag.utils.BytesUtils.isFullZero;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
+import java.util.AbstractMap;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 
@@ -41,40 +47,52 @@ import lombok.extern.slf4j.Slf4j;
 
 @Slf4j
 public class NetDB {
-    /** remote */
-    List<IP> ipList = new ArrayList<>();
+    /** 多久没有出现的地址视为过期 */
+    public static final long STALE_TIME = 24L * 3600 * 1000;
+    /** 容量满时从最久未出现的地址中找评分最差的淘汰 最多检查的个数 */
+    private static final int EVICT_SCAN = 16;
+    /** 至少失败这么多次 并且失败超过成功的两倍 才因失败删除地址 一次偶然的连接失败不删除 */
+    public static final int MIN_FAILURES = 5;
+
+    /** remote 按最近出现的顺序 最久未出现的在前 */
+    private final LinkedHashMap<IP, IP> ipMap = new LinkedHashMap<>();
+    private final int capacity;
 
     Config config;
 
     public NetDB() {
+        this(Integer.MAX_VALUE);
+    }
+
+    /** 最多保存capacity个地址 */
+    public NetDB(int capacity) {
+        this.capacity = capacity;
     }
 
     public NetDB(Config config) {
+        this();
         this.config = config;
     }
 
     /** 从remote节点获取的iplist */
     public NetDB(byte[] data) {
+        this();
         parse(data);
     }
 
     public void addNewIP(String address) {
         String ip = address.split(":")[0];
         int port = Integer.parseInt(address.split(":")[1]);
-        ipList.add(new IP(ip, port));
+        add(new IP(ip, port));
     }
 
     public void addNewIP(String ip, int port) {
-        ipList.add(new IP(ip, port));
+        add(new IP(ip, port));
     }
 
     public void addNewIP(byte[] ip, byte[] port) {
         try {
-            ipList.add(
-                    new IP(
-                            InetAddress.getByAddress(ip),
-                            Short.toUnsignedInt(BytesUtils.bytesToShort(port, 0, true))));
-
+            add(new IP(InetAddress.getByAddress(ip), Short.toUnsignedInt(BytesUtils.bytesToShort(port, 0, true))));
         } catch (UnknownHostException e) {
             e.printStackTrace();
         }
@@ -82,22 +100,113 @@ public class NetDB {
 
     /** address 6字节 4字节ip+2字节port */
     public void addNewIP(byte[] address) {
-        byte[] ip = BytesUtils.subArray(address, 0, 4);
-        byte[] port = BytesUtils.subArray(address, 4, 2);
+        addNewIP(address, 0);
+    }
+
+    private void addNewIP(byte[] data, int offset) {
+        byte[] ip = BytesUtils.subArray(data, offset, 4);
+        byte[] port = BytesUtils.subArray(data, offset + 4, 2);
         if (isFullZero(ip) || isFullZero(port)) {
             return;
         }
         addNewIP(ip, port);
     }
 
-    /** 获取remote接收到的新IP */
+    /** 已有的地址只更新最后出现时间 */
+    private synchronized void add(IP ip) {
+        if (ip.getIp() == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        IP old = ipMap.remove(ip);
+        if (old != null) {
+            // 移到最后
+            old.lastSeen = now;
+            ipMap.put(old, old);
+            return;
+        }
+        ip.lastSeen = now;
+        ipMap.put(ip, ip);
+        if (ipMap.size() > capacity) {
+            evict();
+        }
+    }
+
+    /** 淘汰最久未出现的地址中第一个没有连接成功过的 都成功过则淘汰最久未出现的 */
+    private void evict() {
+        Iterator<IP> it = ipMap.keySet().iterator();
+        IP victim = null;
+        for (int i = 0; i < EVICT_SCAN && it.hasNext(); i++) {
+            IP ip = it.next();
+            if (victim == null) {
+                victim = ip;
+            }
+            if (ip.getScore() <= 0) {
+                victim = ip;
+                break;
+            }
+        }
+        ipMap.remove(victim);
+    }
+
+    /** 删除过期的地址以及屡次连接失败的地址, 返回删除的个数 */
+    public int removeStale(long now) {
+        return removeStale(now, null);
+    }
+
+    /** seeds中的种子节点不删除 */
+    public int removeStale(long now, NetDB seeds) {
+        // 先取种子的快照 避免同时持有两个NetDB的锁
+        Set<IP> keep = seeds == null ? Collections.emptySet() : new HashSet<>(seeds.getIpList());
+        synchronized (this) {
+            int removed = 0;
+            Iterator<IP> it = ipMap.keySet().iterator();
+            while (it.hasNext()) {
+                IP ip = it.next();
+                if ((ip.lastSeen < now - STALE_TIME || ip.isUnreachable()) && !keep.contains(ip)) {
+                    it.remove();
+                    removed++;
+                }
+            }
+            return removed;
+        }
+    }
+
+    public synchronized void onSuccess(InetSocketAddress address) {
+        IP ip = find(address);
+        if (ip != null) {
+            ip.successes++;
+        }
+    }
+
+    public synchronized void onFailure(InetSocketAddress address) {
+        IP ip = find(address);
+        if (ip != null) {
+            ip.failures++;
+        }
+    }
+
+    private IP find(InetSocketAddress address) {
+        if (address.getAddress() == null) {
+            return null;
+        }
+        return ipMap.get(new IP(address.getAddress(), address.getPort()));
+    }
+
+    /** 获取remote接收到的新IP 评分高的在前 */
     public Set<Node> getIPList() {
-        Set<Node> res = new HashSet<>();
-        if (ipList.size() != 0) {
-            for (IP ip : ipList) {
-                res.add(new Node(ip.getIp(), ip.getPort()));
+        // 评分在锁内取出 排序时不会被onSuccess onFailure改变
+        List<Map.Entry<IP, Integer>> scored = new ArrayList<>();
+        synchronized (this) {
+            for (IP ip : ipMap.keySet()) {
+                scored.add(new AbstractMap.SimpleImmutableEntry<>(ip, ip.getScore()));
             }
         }
+        scored.sort(Map.Entry.<IP, Integer>comparingByValue().reversed());
+        Set<Node> res = new LinkedHashSet<>();
+        for (Map.Entry<IP, Integer> entry : scored) {
+            res.add(new Node(entry.getKey().getIp(), entry.getKey().getPort()));
+        }
         return res;
     }
 
@@ -108,15 +217,18 @@ public class NetDB {
      *            消息内容
      */
     public void parse(byte[] data) {
-        int size = data.length / 6;
+        parse(data, 0, data.length);
+    }
+
+    public void parse(byte[] data, int offset, int length) {
+        int size = length / 6;
         for (int i = 0; i < size; i++) {
-            byte[] ipdata = BytesUtils.subArray(data, i * 6, 6);
-            addNewIP(ipdata);
+            addNewIP(data, offset + i * 6);
         }
     }
 
     public byte[] getEncoded() {
-        return encode(ipList);
+        return encode(getIpList());
     }
 
     public byte[] getEncoded(List<IP> input) {
@@ -132,12 +244,13 @@ public class NetDB {
         return res;
     }
 
-    public int getSize() {
-        return ipList.size();
+    public synchronized int getSize() {
+        return ipMap.size();
     }
 
-    public List<IP> getIpList() {
-        return ipList;
+    /** 地址的快照 */
+    public synchronized List<IP> getIpList() {
+        return new ArrayList<>(ipMap.keySet());
     }
 
     public void updateNetDB(NetDB netDB) {
@@ -148,33 +261,34 @@ public class NetDB {
     @Override
     public String toString() {
         StringBuilder stringBuilder = new StringBuilder();
-        for (IP ip : ipList) {
+        for (IP ip : getIpList()) {
             stringBuilder.append(ip).append("\n");
         }
         return stringBuilder.toString();
     }
 
     public void appendNetDB(NetDB netDB) {
-        if (netDB.ipList.size() == 0) {
+        List<IP> ips = netDB.getIpList();
+        if (ips.size() == 0) {
             log.debug("size 0");
             return;
         }
-        for (IP ip : netDB.ipList) {
-            if (this.ipList.contains(ip)) {
-                continue;
-            }
-            this.ipList.add(ip);
+        for (IP ip : ips) {
+            add(new IP(ip.getIp(), ip.getPort()));
         }
     }
 
-    public boolean contains(InetSocketAddress address) {
-        IP ip = new IP(address.getAddress(), address.getPort());
-        return this.ipList.contains(ip);
+    public synchronized boolean contains(InetSocketAddress address) {
+        return address.getAddress() != null && ipMap.containsKey(new IP(address.getAddress(), address.getPort()));
     }
 
     class IP {
         InetAddress ip;
         int port;
+        /** 以下不参与equals 由NetDB的锁保护 */
+        long lastSeen;
+        int successes;
+        int failures;
 
         public IP(InetAddress ip, int port) {
             this.ip = ip;
@@ -206,6 +320,16 @@ public class NetDB {
             this.port = port;
         }
 
+        /** 连接成功次数减失败次数 */
+        public int getScore() {
+            return successes - failures;
+        }
+
+        /** 失败次数达到下限 并且失败超过成功的两倍 */
+        boolean isUnreachable() {
+            return failures >= MIN_FAILURES && failures > 2 * successes;
+        }
+
         public byte[] getData() {
             return BytesUtils.merge(ip.getAddress(), BytesUtils.shortToBytes((short) port, true));
         }
@@ -24,18 +24,19 @@
 package io.xdag.net.message;
 
 import java.math.BigInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
+/**
+ * 本地区块数用原子计数, 全网的最大值放在不可变的Totals中 通过CAS合并, 各个连接的线程可以同时更新不需要加锁
+ */
 public class NetStatus {
-    protected BigInteger difficulty;
-    protected BigInteger maxdifficulty;
-    protected long nblocks;
-    protected long totalnblocks;
-    protected long nmain;
-    protected long totalnmain;
-    protected int nhosts;
-    protected int totalnhosts;
-
-    protected long maintime;
+    protected volatile BigInteger difficulty;
+    protected final AtomicLong nblocks = new AtomicLong();
+    protected final AtomicLong nmain = new AtomicLong();
+    protected volatile int nhosts;
+    protected volatile long maintime;
+    protected final AtomicReference<Totals> totals = new AtomicReference<>(Totals.EMPTY);
 
     public NetStatus() {
     }
@@ -47,37 +48,37 @@ public class NetStatus {
             long totalnmain,
             int totalnhosts,
             long maintime) {
-        this.maxdifficulty = maxdifficulty;
-        this.totalnblocks = totalnblocks;
-        this.totalnmain = totalnmain;
-        this.totalnhosts = totalnhosts;
+        this.totals.set(new Totals(maxdifficulty, totalnblocks, totalnmain, totalnhosts));
         this.maintime = maintime;
     }
 
     public NetStatus(NetStatus netStatus) {
         this.difficulty = netStatus.difficulty;
-        this.maxdifficulty = netStatus.maxdifficulty;
-        this.nblocks = netStatus.nblocks;
-        this.totalnblocks = netStatus.totalnblocks;
-        this.nmain = netStatus.nmain;
-        this.totalnmain = netStatus.totalnmain;
+        this.nblocks.set(netStatus.nblocks.get());
+        this.nmain.set(netStatus.nmain.get());
         this.nhosts = netStatus.nhosts;
-        this.totalnhosts = netStatus.totalnhosts;
+        this.totals.set(netStatus.totals.get());
     }
 
     public void init(BigInteger diff, long totalnmain, long totalnblocks) {
-        this.difficulty = this.maxdifficulty = diff;
-        this.nblocks = this.totalnblocks = totalnblocks;
-        this.nmain = this.totalnmain = totalnmain;
+        this.difficulty = diff;
+        this.nblocks.set(totalnblocks);
+        this.nmain.set(totalnmain);
+        this.totals.set(new Totals(diff, totalnblocks, totalnmain, totals.get().totalnhosts));
     }
 
+    /** 合并remote的全网统计 只增不减 */
     public void updateNetStatus(NetStatus remoteNetStatus) {
-        this.totalnhosts = Math.max(this.totalnhosts, remoteNetStatus.totalnhosts);
-        this.totalnblocks = Math.max(this.totalnblocks, remoteNetStatus.totalnblocks);
-        this.totalnmain = Math.max(this.totalnmain, remoteNetStatus.totalnmain);
-        if (remoteNetStatus.maxdifficulty.compareTo(this.maxdifficulty) > 0) {
-            this.maxdifficulty = remoteNetStatus.maxdifficulty;
-        }
+        Totals remote = remoteNetStatus.totals.get();
+        Totals current;
+        Totals merged;
+        do {
+            current = totals.get();
+            merged = current.merge(remote);
+            if (merged == current) {
+                return;
+            }
+        } while (!totals.compareAndSet(current, merged));
     }
 
     public BigInteger getDifficulty() {
@@ -89,52 +90,60 @@ public class NetStatus {
     }
 
     public BigInteger getMaxdifficulty() {
-        if (maxdifficulty.compareTo(difficulty) < 0) {
-            maxdifficulty = BigInteger.valueOf(difficulty.longValue());
+        BigInteger maxdifficulty = totals.get().maxdifficulty;
+        BigInteger diff = difficulty;
+        if (maxdifficulty == null || (diff != null && maxdifficulty.compareTo(diff) < 0)) {
+            return diff;
         }
         return maxdifficulty;
     }
 
     public void setMaxdifficulty(BigInteger maxdifficulty) {
-        this.maxdifficulty = maxdifficulty;
+        Totals current;
+        do {
+            current = totals.get();
+        } while (!totals.compareAndSet(current,
+                new Totals(maxdifficulty, current.totalnblocks, current.totalnmain, current.totalnhosts)));
     }
 
     public long getNblocks() {
-        return nblocks;
+        return nblocks.get();
     }
 
     public void setNblocks(long nblocks) {
-        this.nblocks = nblocks;
+        this.nblocks.set(nblocks);
     }
 
     public long getTotalnblocks() {
-        if (totalnblocks < nblocks) {
-            totalnblocks = nblocks;
-        }
-        return totalnblocks;
+        return Math.max(totals.get().totalnblocks, nblocks.get());
     }
 
     public void setTotalnblocks(long totalnblocks) {
-        this.totalnblocks = totalnblocks;
+        Totals current;
+        do {
+            current = totals.get();
+        } while (!totals.compareAndSet(current,
+                new Totals(current.maxdifficulty, totalnblocks, current.totalnmain, current.totalnhosts)));
     }
 
     public long getNmain() {
-        return nmain;
+        return nmain.get();
     }
 
     public void setNmain(long nmain) {
-        this.nmain = nmain;
+        this.nmain.set(nmain);
     }
 
     public long getTotalnmain() {
-        if (totalnmain < nmain) {
-            totalnmain = nmain;
-        }
-        return totalnmain;
+        return Math.max(totals.get().totalnmain, nmain.get());
     }
 
     public void setTotalnmain(long totalnmain) {
-        this.totalnmain = totalnmain;
+        Totals current;
+        do {
+            current = totals.get();
+        } while (!totals.compareAndSet(current,
+                new Totals(current.maxdifficulty, current.totalnblocks, totalnmain, current.totalnhosts)));
     }
 
     public int getNhosts() {
@@ -146,11 +155,15 @@ public class NetStatus {
     }
 
     public int getTotalnhosts() {
-        return totalnhosts;
+        return totals.get().totalnhosts;
     }
 
     public void setTotalnhosts(int totalnhosts) {
-        this.totalnhosts = totalnhosts;
+        Totals current;
+        do {
+            current = totals.get();
+        } while (!totals.compareAndSet(current,
+                new Totals(current.maxdifficulty, current.totalnblocks, current.totalnmain, totalnhosts)));
     }
 
     public long getMaintime() {
@@ -163,29 +176,61 @@ public class NetStatus {
 
     @Override
     public String toString() {
+        BigInteger maxdifficulty = getMaxdifficulty();
         return "NetStatus:[ total block size:"
-                + this.totalnblocks
+                + getTotalnblocks()
                 + ",total mainblock size:"
-                + this.totalnmain
+                + getTotalnmain()
                 + ",max diff:"
-                + this.maxdifficulty.toString(16)
+                + (maxdifficulty == null ? "null" : maxdifficulty.toString(16))
                 + " ]";
     }
 
-    /** 仅在新block加入时执行 可以不考虑并行的情况 */
     public void incMain() {
-        this.nmain++;
+        nmain.incrementAndGet();
     }
 
     public void decMain() {
-        this.nmain--;
+        nmain.decrementAndGet();
     }
 
     public void incBlock() {
-        this.nblocks++;
+        nblocks.incrementAndGet();
     }
 
     public void decBlock() {
-        this.nblocks--;
+        nblocks.decrementAndGet();
+    }
+
+    /** 全网统计的不可变快照 */
+    private static final class Totals {
+        static final Totals EMPTY = new Totals(null, 0, 0, 0);
+
+        final BigInteger maxdifficulty;
+        final long totalnblocks;
+        final long totalnmain;
+        final int totalnhosts;
+
+        Totals(BigInteger maxdifficulty, long totalnblocks, long totalnmain, int totalnhosts) {
+            this.maxdifficulty = maxdifficulty;
+            this.totalnblocks = totalnblocks;
+            this.totalnmain = totalnmain;
+            this.totalnhosts = totalnhosts;
+        }
+
+        /** 逐项取最大值 没有变化时返回自身 */
+        Totals merge(Totals other) {
+            BigInteger maxdiff = maxdifficulty;
+            if (other.maxdifficulty != null && (maxdiff == null || other.maxdifficulty.compareTo(maxdiff) > 0)) {
+                maxdiff = other.maxdifficulty;
+            }
+            long blocks = Math.max(totalnblocks, other.totalnblocks);
+            long mains = Math.max(totalnmain, other.totalnmain);
+            int hosts = Math.max(totalnhosts, other.totalnhosts);
+            if (maxdiff == maxdifficulty && blocks == totalnblocks && mains == totalnmain && hosts == totalnhosts) {
+                return this;
+            }
+            return new Totals(maxdiff, blocks, mains, hosts);
+        }
     }
 }
@@ -26,7 +26,6 @@ package io.xdag.net.message.impl;
 import static io.xdag.net.message.XdagMessageCodes.SUMS_REPLY;
 
 import io.xdag.net.message.AbstractMessage;
-import io.xdag.net.message.NetDB;
 import io.xdag.net.message.NetStatus;
 import io.xdag.net.message.XdagMessageCodes;
 import io.xdag.utils.BytesUtils;
@@ -98,12 +97,7 @@ public class SumReplyMessage extends AbstractMessage {
         long maintime = BytesUtils.bytesToLong(encoded, 136, true);
         netStatus = new NetStatus(maxdifficulty, totalnblocks, totalnmains, totalnhosts, maintime);
 
-        // test netdb
-        int length = 6;
-        // 80 是sizeof(xdag_stats)
-        byte[] netdb = new byte[length * 32 - 80];
-        System.arraycopy(encoded, 144, netdb, 0, length * 32 - 80);
-        netDB = new NetDB(netdb);
+        hasNetDB = true;
 
         sums = new byte[256];
         System.arraycopy(encoded, 256, sums, 0, 256);
@@ -151,6 +151,8 @@ public class NodeManager {
         // 从白名单获得新节点
         addNodes(getSeedNodes(netDBManager.getWhiteDB()));
         // 从netdb获取新节点
+        int stale = netDBManager.removeStale();
+        log.debug("remove {} stale nodes", stale);
         addNodes(getSeedNodes(netDBManager.getNetDB()));
         log.debug("node size:" + deque.size());
     }
@@ -176,7 +178,9 @@ public class NodeManager {
                     && !activeAddress.contains(node.getAddress())
                     && (lastCon == null || lastCon + RECONNECT_WAIT < now)) {
                 XdagChannelInitializer initializer = new XdagChannelInitializer(kernel, false, node);
-                client.connect(node.getHost(), node.getPort(), initializer);
+                if (!client.connect(node.getHost(), node.getPort(), initializer)) {
+                    netDBManager.onConnectFailure(node.getAddress());
+                }
                 lastConnect.put(node, now);
                 break;
             }
@@ -34,6 +34,7 @@ import org.spongycastle.util.encoders.Hex;
 public class BasicUtils {
     // 过去4小时产出的块的数量
     public static final int HASHRATE_LAST_MAX_TIME = 64 * 4;
+    private static final BigInteger LOW_64_MASK = BigInteger.ONE.shiftLeft(64).subtract(BigInteger.ONE);
 
     public static char[] bit2mime = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
 
@@ -41,14 +42,14 @@ public class BasicUtils {
             "ffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffff3effffff3f3435363738393a3b3c3dffffffffffffff000102030405060708090a0b0c0d0e0f10111213141516171819ffffffffffff1a1b1c1d1e1f202122232425262728292a2b2c2d2e2f30313233ffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffff");
 
     public static BigInteger getDiffByHash(byte[] hash) {
-        byte[] data = new byte[16];
-        // 实现了右移32位 4个字节
-        System.arraycopy(hash, 0, data, 4, 12);
-        BigInteger res = new BigInteger(Hex.toHexString(data), 16);
-        // max是2的128次方减1 这样效率高吗
-        BigInteger max = new BigInteger("ffffffffffffffffffffffffffffffff", 16);
-        BigInteger ans = max.divide(res);
-        return ans;
+        return getDiffByHash128(hash).toBigInteger();
+    }
+
+    /** (2^128-1) / (hash前12字节) 即hash右移32位后作除数 */
+    public static UInt128 getDiffByHash128(byte[] hash) {
+        long hi = BytesUtils.bytesToInt(hash, 0, false) & 0xffffffffL;
+        long lo = BytesUtils.bytesToLong(hash, 4, false);
+        return UInt128.MAX_VALUE.divide(new UInt128(hi, lo));
     }
 
     public static String hash2Address(byte[] hash) {
@@ -137,25 +138,26 @@ public class BasicUtils {
                 BytesUtils.intToBytes((int) crc32.getValue(), true), BytesUtils.intToBytes(crc, true));
     }
 
+    /** 同 xdag_diff2log(UInt128) diff 不超过128位 */
     public static double xdag_diff2log(BigInteger diff) {
-        byte[] bytes = BytesUtils.bigIntegerToBytes(diff, 16, false);
-        byte[] resByte = new byte[8];
-        System.arraycopy(bytes, 8, resByte, 0, 8);
-        BigInteger res = new BigInteger(Hex.toHexString(resByte), 16);
-        byte[] data = new byte[16];
-        Arrays.fill(data, (byte) 0);
-        System.arraycopy(bytes, 0, data, 0, 8);
-        BigInteger diffI = new BigInteger(Hex.toHexString(data), 16);
-        if (diffI.compareTo(BigInteger.ZERO) > 0) {
-            BigInteger temp = BigInteger.valueOf(2 ^ 64);
-            res = res.add(diffI.multiply(temp));
+        double res = diff.and(LOW_64_MASK).doubleValue();
+        BigInteger hi = diff.shiftRight(64);
+        if (hi.signum() > 0) {
+            res += Math.scalb(hi.doubleValue(), 64);
         }
+        return res > 0 ? Math.log(res) : 0.0;
+    }
 
-        if (res.compareTo(BigInteger.ZERO) > 0) {
-            return Math.log(res.doubleValue());
-        } else {
-            return 0.0;
+    /**
+     * 对应C版本的 xdag_diff2log: log(lo + ldexp(hi, 64)) diff为0时返回0
+     * C版本用long double计算 这里用double 相对误差在1e-15量级
+     */
+    public static double xdag_diff2log(UInt128 diff) {
+        double res = BytesUtils.unsignedToDouble(diff.getLo());
+        if (diff.getHi() != 0) {
+            res += Math.scalb(BytesUtils.unsignedToDouble(diff.getHi()), 64);
         }
+        return res > 0 ? Math.log(res) : 0.0;
     }
 
     public static BigDecimal xdag_hashrate(BigInteger[] diffs) {
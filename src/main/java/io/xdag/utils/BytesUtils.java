@@ -319,6 +319,15 @@ public class BytesUtils {
         return BytesUtils.bytesToBigInteger(data).doubleValue();
     }
 
+    /** 把无符号的long 转换为最接近的double 与C中 (double)uint64_t 的结果一致 */
+    public static double unsignedToDouble(long value) {
+        if (value >= 0) {
+            return value;
+        }
+        // 右移一位时保留最低位 避免二次舍入
+        return (double) ((value >>> 1) | (value & 1)) * 2;
+    }
+
     public String byteToBinaryString(byte b) {
         return Integer.toBinaryString(b & 0xFF);
     }
@@ -0,0 +1,162 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2030 The XdagJ Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.xdag.utils;
+
+import java.math.BigInteger;
+
+/** Unsigned 128 bit integer held in two longs, for difficulty math without BigInteger. */
+public final class UInt128 implements Comparable<UInt128> {
+    public static final UInt128 ZERO = new UInt128(0, 0);
+    public static final UInt128 MAX_VALUE = new UInt128(-1L, -1L);
+
+    private final long hi;
+    private final long lo;
+
+    public UInt128(long hi, long lo) {
+        this.hi = hi;
+        this.lo = lo;
+    }
+
+    /** 从大端字节读取16字节 */
+    public static UInt128 fromBytes(byte[] bytes, int offset) {
+        return new UInt128(BytesUtils.bytesToLong(bytes, offset, false), BytesUtils.bytesToLong(bytes, offset + 8, false));
+    }
+
+    public long getHi() {
+        return hi;
+    }
+
+    public long getLo() {
+        return lo;
+    }
+
+    public boolean isZero() {
+        return hi == 0 && lo == 0;
+    }
+
+    public UInt128 add(UInt128 other) {
+        long sumLo = lo + other.lo;
+        long carry = Long.compareUnsigned(sumLo, lo) < 0 ? 1 : 0;
+        return new UInt128(hi + other.hi + carry, sumLo);
+    }
+
+    /** 无符号整除 */
+    public UInt128 divide(UInt128 divisor) {
+        if (divisor.isZero()) {
+            throw new ArithmeticException("UInt128 divide by zero");
+        }
+        if (hi == 0 && divisor.hi == 0) {
+            return new UInt128(0, Long.divideUnsigned(lo, divisor.lo));
+        }
+        if (compareTo(divisor) < 0) {
+            return ZERO;
+        }
+        // 除数左移到与被除数最高位对齐 逐位相减
+        int shift = divisor.numberOfLeadingZeros() - numberOfLeadingZeros();
+        long dHi = shift == 0 ? divisor.hi
+                : shift >= 64 ? divisor.lo << (shift - 64) : (divisor.hi << shift) | (divisor.lo >>> (64 - shift));
+        long dLo = shift >= 64 ? 0 : divisor.lo << shift;
+        long rHi = hi;
+        long rLo = lo;
+        long qHi = 0;
+        long qLo = 0;
+        for (int i = shift; i >= 0; i--) {
+            int cmp = Long.compareUnsigned(rHi, dHi);
+            if (cmp > 0 || (cmp == 0 && Long.compareUnsigned(rLo, dLo) >= 0)) {
+                long newLo = rLo - dLo;
+                rHi = rHi - dHi - (Long.compareUnsigned(rLo, dLo) < 0 ? 1 : 0);
+                rLo = newLo;
+                if (i >= 64) {
+                    qHi |= 1L << (i - 64);
+                } else {
+                    qLo |= 1L << i;
+                }
+            }
+            dLo = (dLo >>> 1) | (dHi << 63);
+            dHi >>>= 1;
+        }
+        return new UInt128(qHi, qLo);
+    }
+
+    public int numberOfLeadingZeros() {
+        return hi != 0 ? Long.numberOfLeadingZeros(hi) : 64 + Long.numberOfLeadingZeros(lo);
+    }
+
+    /** 转换为最接近的double 与 toBigInteger().doubleValue() 的结果一致 */
+    public double doubleValue() {
+        if (hi == 0) {
+            return BytesUtils.unsignedToDouble(lo);
+        }
+        // 取最高的63位 移出的位合并到最低位 保证舍入方向正确
+        int shift = 65 - Long.numberOfLeadingZeros(hi);
+        long top;
+        boolean sticky;
+        if (shift < 64) {
+            top = (hi << (64 - shift)) | (lo >>> shift);
+            sticky = (lo << (64 - shift)) != 0;
+        } else {
+            top = hi >>> (shift - 64);
+            sticky = lo != 0 || (hi & ((1L << (shift - 64)) - 1)) != 0;
+        }
+        if (sticky) {
+            top |= 1;
+        }
+        return Math.scalb((double) top, shift);
+    }
+
+    public BigInteger toBigInteger() {
+        byte[] bytes = new byte[17];
+        System.arraycopy(BytesUtils.longToBytes(hi, false), 0, bytes, 1, 8);
+        System.arraycopy(BytesUtils.longToBytes(lo, false), 0, bytes, 9, 8);
+        return new BigInteger(bytes);
+    }
+
+    @Override
+    public int compareTo(UInt128 other) {
+        int cmp = Long.compareUnsigned(hi, other.hi);
+        return cmp != 0 ? cmp : Long.compareUnsigned(lo, other.lo);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof UInt128)) {
+            return false;
+        }
+        UInt128 other = (UInt128) o;
+        return hi == other.hi && lo == other.lo;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(hi) * 31 + Long.hashCode(lo);
+    }
+
+    @Override
+    public String toString() {
+        return toBigInteger().toString(16);
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2030 The XdagJ Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.xdag.consensus;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import io.xdag.utils.ByteArrayWrapper;
+
+public class MissingBlockTrackerTest {
+
+    @Test
+    public void testRequestOnceAndFailover() {
+        MissingBlockTracker<String> tracker = new MissingBlockTracker<>(100);
+        List<String> peers = Arrays.asList("a", "b", "c");
+        ByteArrayWrapper hash = new ByteArrayWrapper(new byte[] { 1, 2, 3 });
+
+        assertEquals("b", tracker.request(hash, "b", peers, 0));
+        // 同一个hash只请求一次
+        assertNull(tracker.request(hash, "a", peers, 10));
+        assertTrue(tracker.expire(peers, 99).isEmpty());
+
+        Map<ByteArrayWrapper, String> retries = tracker.expire(peers, 100);
+        assertEquals(1, retries.size());
+        assertNotEquals("b", retries.get(hash));
+
+        // 所有节点都请求过后放弃
+        tracker.expire(peers, 200);
+        assertTrue(tracker.expire(peers, 300).isEmpty());
+        assertEquals(0, tracker.size());
+
+        tracker.request(hash, null, peers, 400);
+        assertTrue(tracker.received(hash));
+        assertEquals(0, tracker.size());
+    }
+}
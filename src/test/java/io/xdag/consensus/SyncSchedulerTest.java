@@ -0,0 +1,98 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2030 The XdagJ Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.xdag.consensus;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import io.xdag.consensus.SyncScheduler.InFlight;
+import io.xdag.consensus.SyncScheduler.Range;
+
+public class SyncSchedulerTest {
+
+    @Test
+    public void testAssignAcrossPeers() {
+        SyncScheduler<String> scheduler = new SyncScheduler<>(2, 100);
+        for (int i = 0; i < 5; i++) {
+            scheduler.add(new Range(i * 10, i * 10 + 10));
+        }
+        List<InFlight<String>> requests = scheduler.assign(Arrays.asList("a", "b"), 0);
+        // 每个节点最多2个 按时间顺序分配
+        assertEquals(4, requests.size());
+        assertEquals(0, requests.get(0).getRange().getStart());
+        assertNotEquals(requests.get(0).getPeer(), requests.get(1).getPeer());
+        assertEquals(1, scheduler.getPendingSize());
+
+        InFlight<String> first = requests.get(0);
+        assertFalse(scheduler.complete(0, 10, first.getPeer().equals("a") ? "b" : "a", Collections.emptyList()));
+        assertTrue(scheduler.complete(0, 10, first.getPeer(),
+                Arrays.asList(new Range(0, 5), new Range(5, 10))));
+        assertEquals(1, scheduler.getCompleted());
+        assertEquals(3, scheduler.getPendingSize());
+        assertEquals(3, scheduler.getInFlightSize());
+    }
+
+    @Test
+    public void testRetryOnTimeout() {
+        SyncScheduler<String> scheduler = new SyncScheduler<>(1, 100);
+        scheduler.add(new Range(0, 10));
+        InFlight<String> request = scheduler.assign(Arrays.asList("a", "b"), 0).get(0);
+        assertEquals(0, scheduler.expire(99));
+        assertEquals(1, scheduler.expire(100));
+        // 超时后换节点
+        InFlight<String> retry = scheduler.assign(Arrays.asList("a", "b"), 100).get(0);
+        assertNotEquals(request.getPeer(), retry.getPeer());
+        assertEquals(1, retry.getRange().getAttempts());
+        // 过期的响应被忽略
+        assertFalse(scheduler.completeByEnd(10, request.getPeer()));
+        assertTrue(scheduler.completeByEnd(10, retry.getPeer()));
+        assertTrue(scheduler.isIdle());
+    }
+
+    @Test
+    public void testRemovePeerAndFrontier() {
+        SyncScheduler<String> scheduler = new SyncScheduler<>(4, 100);
+        scheduler.add(new Range(20, 30));
+        scheduler.add(new Range(0, 10));
+        scheduler.assign(Collections.singletonList("a"), 0);
+        scheduler.add(new Range(10, 20));
+        assertEquals(2, scheduler.getInFlightSize());
+        List<Range> frontier = scheduler.frontier();
+        assertEquals(3, frontier.size());
+        assertEquals(10, frontier.get(1).getStart());
+
+        scheduler.removePeer("a");
+        assertEquals(0, scheduler.getInFlightSize());
+        assertEquals(3, scheduler.getPendingSize());
+        assertEquals(3, scheduler.assign(Collections.singletonList("b"), 0).size());
+    }
+}
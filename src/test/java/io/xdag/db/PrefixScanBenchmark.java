@@ -0,0 +1,153 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2030 The XdagJ Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.xdag.db;
+
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.rocksdb.ReadOptions;
+import org.rocksdb.RocksIterator;
+
+import io.xdag.config.Config;
+import io.xdag.db.rocksdb.RocksdbKVSource;
+import io.xdag.utils.BytesUtils;
+import io.xdag.utils.FileUtils;
+
+/**
+ * Compares the cost of one getBlocksByTime style scan on a large TIME store: the legacy scan that
+ * keeps iterating to the end of the database against the bounded prefix scan.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PrefixScanBenchmark {
+
+    @Param({ "10000000" })
+    public int keys;
+
+    /** blocks stored under each 64 second time prefix */
+    @Param({ "16" })
+    public int keysPerPrefix;
+
+    private RocksdbKVSource timeSource;
+    private String storeDir;
+    private List<byte[]> prefixes;
+    private Random random = new Random(7);
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        storeDir = Files.createTempDirectory("xdag-prefix-bench").toString();
+        Config config = new Config();
+        config.setStoreDir(storeDir);
+        timeSource = new RocksdbKVSource(config, DatabaseName.TIME.toString());
+        timeSource.init();
+
+        Map<byte[], byte[]> batch = new HashMap<>();
+        byte[] hashlow = new byte[32];
+        for (int i = 0; i < keys; i++) {
+            random.nextBytes(hashlow);
+            byte[] value = hashlow.clone();
+            batch.put(BytesUtils.merge(BytesUtils.longToBytes(i / keysPerPrefix, false), value), value);
+            if (batch.size() == 100000) {
+                timeSource.updateBatch(batch);
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            timeSource.updateBatch(batch);
+        }
+
+        prefixes = new ArrayList<>();
+        int prefixCount = keys / keysPerPrefix;
+        for (int i = 0; i < 1024; i++) {
+            prefixes.add(BytesUtils.longToBytes(random.nextInt(prefixCount), false));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        timeSource.close();
+        FileUtils.recursiveDelete(storeDir);
+    }
+
+    private byte[] nextPrefix() {
+        return prefixes.get(random.nextInt(prefixes.size()));
+    }
+
+    /** scan as it was done before: seek to the prefix and walk until the end of the database */
+    @Benchmark
+    public void unboundedScan(Blackhole bh) {
+        byte[] prefix = nextPrefix();
+        try (ReadOptions readOptions = new ReadOptions().setTotalOrderSeek(true);
+                RocksIterator it = timeSource.getDb().newIterator(readOptions)) {
+            for (it.seek(prefix); it.isValid(); it.next()) {
+                if (BytesUtils.keyStartsWith(it.key(), prefix)) {
+                    bh.consume(it.value());
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    public void boundedScan(Blackhole bh) {
+        timeSource.prefixScan(nextPrefix(), (key, value) -> {
+            bh.consume(value);
+            return true;
+        });
+    }
+
+    @Benchmark
+    public void boundedLookup(Blackhole bh) {
+        bh.consume(timeSource.prefixValueLookup(nextPrefix(), 8));
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(PrefixScanBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2030 The XdagJ Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.xdag.mine.manager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+import org.junit.Test;
+import org.spongycastle.util.encoders.Hex;
+
+import io.xdag.mine.miner.MinerCalculate;
+import io.xdag.utils.BigDecimalUtils;
+
+public class AwardManagerImplTest {
+
+    /** 记录的6个矿工在连续3轮中提交的最小share 最后一列是本轮 */
+    private static final String[][] SHARES = {
+            { "000000bbd83fbef2c6f6c00df5b2a9ffcab434a53d73003877e810130a7ff052",
+                    "000000003823789fd979fbf3ff8ee855f88988c98a78b74c84b2eafb6c483167",
+                    "0000000000378afff38b5e6b5547121b15a23a9934f013d4063c4a1d7000f20e" },
+            { "0000000064f5e88f64088a4cb7017852f6048d6bce1c7837d0231bba29cb68e7",
+                    "00000000197069c021ce6e3b2c50a3a8df49a70f8d81b65aa77ae24210664fe8",
+                    "00000000008609343a10776506af9a5463a4d92a74f18ab7fd465e5f465d6cd7" },
+            { "000000610bbf6e9a472725082ea83bafe41de83a3a67c69194620d778037a11f",
+                    "0000005c59af3ca571bac0ba20c9b9046686317859371075a6f607c83182cb40",
+                    "000000c1d22ac59aa29dc211e5cc64158a9cd1f2136d9ceea6ea045a5ffaf79c" },
+            { "0000004eba7d3b4b5da013a00f81d9ab93d317a6b1b7e22923f385979c630a98",
+                    "0000003f3988880f454c0f3d55e401608fec93f872be09e9a113be47c3e797d9",
+                    "0000000000f83c116f2352d8915a7305ce513d031384363a6a59ea1b9158eb02" },
+            { "0000009f57b7c19b9ecf63d6bb251ebd612021e00a59747e2feea794557ddc24",
+                    "00000000b09413ec441251552d97efb1a0dd2e91ddf340a3c36174691f93c765",
+                    "00000000743b7525cf8ca110cf33340d6333f87ca8975d121325defaf9f6ee29" },
+            { "00000000d01d22d25e8ecfe9ddcbd53a8aaf37d668978aee2028b07b68f417f2",
+                    "000000c9b526be203a0896c92d5b29aea602514bcaebfa2b5a3cd5e43626265a",
+                    "0000000000850b491ed2411fca8b94de4879e40cdca2eb945a705e740b127569" } };
+
+    @Test
+    public void testCalculatePayment() {
+        double[] diffs = new double[SHARES.length];
+        double[] prevDiffs = new double[SHARES.length];
+        AwardManagerImpl.PayData payData = new AwardManagerImpl.PayData();
+        // 与countpay一致 本轮的难度单独计算 以前的难度累加后一起计算
+        for (int i = 0; i < SHARES.length; i++) {
+            double prevSum = 0.0;
+            int last = SHARES[i].length - 1;
+            for (int j = 0; j < last; j++) {
+                prevSum += MinerCalculate.shareDiff(Hex.decode(SHARES[i][j]));
+            }
+            double diff = MinerCalculate.shareDiff(Hex.decode(SHARES[i][last]));
+            diffs[i] = MinerCalculate.diffToPay(diff, 1);
+            prevDiffs[i] = MinerCalculate.diffToPay(diff + prevSum, 1 + last);
+            payData.diffSums += diffs[i];
+            payData.prevDiffSums += prevDiffs[i];
+        }
+
+        payData.balance = 1024L << 32;
+        payData.poolFee = (long) (payData.balance * 0.05);
+        payData.directIncome = (long) (payData.balance * 0.05);
+        payData.unusedBalance = payData.balance - payData.poolFee - payData.directIncome;
+
+        // 原来的实现把占比四舍五入到6位小数 每一项最多差0.5e-6倍的金额 再加上两次截断各差1
+        double tolerance = (payData.unusedBalance + payData.directIncome) * 0.5e-6 + 2;
+        long total = 0;
+        for (int i = 0; i < SHARES.length; i++) {
+            long payment = AwardManagerImpl.calculatePayment(payData, prevDiffs[i], diffs[i]);
+            assertEquals(legacyPayment(payData, prevDiffs[i], diffs[i]), payment, tolerance);
+            // 与不经舍入的精确占比相比 只差两次截断
+            assertEquals(exactPayment(payData, prevDiffs[i], diffs[i]), payment, 2);
+            total += payment;
+        }
+        assertTrue(total <= payData.unusedBalance + payData.directIncome);
+    }
+
+    /** 改为double计算之前 doPayments中用BigDecimalUtils计算收入的方式 */
+    private static long legacyPayment(AwardManagerImpl.PayData payData, double prevDiffSum, double diffSum) {
+        long paymentSum = 0L;
+        if (payData.prevDiffSums > 0) {
+            double per = BigDecimalUtils.div(prevDiffSum, payData.prevDiffSums);
+            paymentSum += BigDecimalUtils.mul(payData.unusedBalance, per);
+        }
+        if (payData.diffSums > 0) {
+            double per = BigDecimalUtils.div(diffSum, payData.diffSums);
+            paymentSum += BigDecimalUtils.mul(payData.directIncome, per);
+        }
+        return paymentSum;
+    }
+
+    /** 金额乘以精确占比后截断 */
+    private static long exactPayment(AwardManagerImpl.PayData payData, double prevDiffSum, double diffSum) {
+        BigDecimal prev = new BigDecimal(payData.unusedBalance).multiply(new BigDecimal(prevDiffSum))
+                .divide(new BigDecimal(payData.prevDiffSums), 0, RoundingMode.DOWN);
+        BigDecimal direct = new BigDecimal(payData.directIncome).multiply(new BigDecimal(diffSum))
+                .divide(new BigDecimal(payData.diffSums), 0, RoundingMode.DOWN);
+        return prev.add(direct).longValueExact();
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2030 The XdagJ Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.xdag.mine.manager;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import io.xdag.mine.miner.MinerCalculate;
+import io.xdag.utils.BasicUtils;
+import io.xdag.utils.BigDecimalUtils;
+import io.xdag.utils.BytesUtils;
+
+/**
+ * Compares the per share and per payout math done through hex strings, BigInteger and BigDecimal
+ * against the primitive double versions used by MinerCalculate and AwardManagerImpl.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ShareMathBenchmark {
+
+    private static final int SIZE = 1024;
+
+    private byte[][] hashes;
+    private double[] samples;
+    private AwardManagerImpl.PayData payData;
+    private Random random = new Random(25);
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        hashes = new byte[SIZE][32];
+        samples = new double[SIZE];
+        for (int i = 0; i < SIZE; i++) {
+            random.nextBytes(hashes[i]);
+            // share的hash前面通常有若干个0字节
+            for (int k = 3 + random.nextInt(3); k > 0; k--) {
+                hashes[i][k - 1] = 0;
+            }
+            samples[i] = MinerCalculate.shareDiff(hashes[i]);
+        }
+        payData = new AwardManagerImpl.PayData();
+        payData.unusedBalance = 3958241859994L;
+        payData.directIncome = 219902325555L;
+        payData.prevDiffSums = 3876.0;
+        payData.diffSums = 110632.0;
+    }
+
+    private int nextIndex() {
+        next = (next + 1) & (SIZE - 1);
+        return next;
+    }
+
+    @Benchmark
+    public double legacyShareDiff() {
+        byte[] hash = hashes[nextIndex()];
+        double diff = BytesUtils.hexBytesToDouble(hash, 8, false);
+        diff *= Math.pow(2, -64);
+        diff += BytesUtils.hexBytesToDouble(hash, 0, false);
+        if (diff < 1) {
+            diff = 1;
+        }
+        return 46 - Math.log(diff);
+    }
+
+    @Benchmark
+    public double shareDiff() {
+        return MinerCalculate.shareDiff(hashes[nextIndex()]);
+    }
+
+    @Benchmark
+    public double legacyDiff2log() {
+        return BasicUtils.xdag_diff2log(BasicUtils.getDiffByHash(hashes[nextIndex()]));
+    }
+
+    @Benchmark
+    public double diff2log() {
+        return BasicUtils.xdag_diff2log(BasicUtils.getDiffByHash128(hashes[nextIndex()]));
+    }
+
+    @Benchmark
+    public double legacyWelford() {
+        int i = nextIndex();
+        double mean = samples[i];
+        double temp = BigDecimalUtils.div(BigDecimalUtils.sub(samples[(i + 1) & (SIZE - 1)], mean), 255);
+        return BigDecimalUtils.add(mean, temp);
+    }
+
+    @Benchmark
+    public double welford() {
+        int i = nextIndex();
+        return MinerCalculate.welfordOnePass(samples[i], samples[(i + 1) & (SIZE - 1)], 255);
+    }
+
+    @Benchmark
+    public long legacyPayment() {
+        int i = nextIndex();
+        long paymentSum = 0L;
+        double per = BigDecimalUtils.div(samples[i], payData.prevDiffSums);
+        paymentSum += BigDecimalUtils.mul(payData.unusedBalance, per);
+        per = BigDecimalUtils.div(samples[i] * 2, payData.diffSums);
+        paymentSum += BigDecimalUtils.mul(payData.directIncome, per);
+        return paymentSum;
+    }
+
+    @Benchmark
+    public long payment() {
+        int i = nextIndex();
+        return AwardManagerImpl.calculatePayment(payData, samples[i], samples[i] * 2);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(ShareMathBenchmark.class.getSimpleName()).build()).run();
+    }
+}
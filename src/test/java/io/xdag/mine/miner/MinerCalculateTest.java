@@ -23,10 +23,37 @@
  */
 package io.xdag.mine.miner;
 
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
 import org.junit.Test;
 
+import io.xdag.utils.BytesUtils;
+
 public class MinerCalculateTest {
 
+    @Test
+    public void shareDiffTest() {
+        Random random = new Random(4);
+        byte[] hash = new byte[32];
+        for (int i = 0; i < 100000; i++) {
+            random.nextBytes(hash);
+            // share的hash前面通常有若干个0字节
+            for (int k = random.nextInt(12); k > 0; k--) {
+                hash[k - 1] = 0;
+            }
+            double expected = BytesUtils.hexBytesToDouble(hash, 8, false);
+            expected *= Math.pow(2, -64);
+            expected += BytesUtils.hexBytesToDouble(hash, 0, false);
+            if (expected < 1) {
+                expected = 1;
+            }
+            expected = 46 - Math.log(expected);
+            assertEquals(Double.doubleToLongBits(expected), Double.doubleToLongBits(MinerCalculate.shareDiff(hash)));
+        }
+    }
+
     @Test
     public void movingAverageDouble() {
         double res = MinerCalculate.movingAverageDouble(100, 200, 300);
@@ -0,0 +1,70 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2030 The XdagJ Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.xdag.mine.miner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class MinerTest {
+
+    @Test
+    public void testMaxDiffs() {
+        Miner miner = new Miner(new byte[32]);
+        miner.setMinerStates(MinerStates.MINER_ARCHIVE);
+        assertTrue(miner.canRemove());
+
+        miner.setMaxDiffs(15, 12.5);
+        assertEquals(12.5, miner.getMaxDiffs(15), 0.0);
+        assertEquals(0.0, miner.getMaxDiffs(0), 0.0);
+        assertTrue(!miner.canRemove());
+    }
+
+    @Test
+    public void testDiffSumWindow() {
+        Miner miner = new Miner(new byte[32]);
+        long time = 0x1234L << 16 | 0xffff;
+
+        miner.setDiffSum(time, 1.5);
+        miner.setDiffSum(time, 2.0);
+        miner.setPrevDiffSum(time, 4.0);
+        assertEquals(3.5, miner.getDiffSum(time), 0.0);
+        assertEquals(4.0, miner.getPrevDiffSum(time), 0.0);
+
+        // 同一个槽位的新时间会覆盖旧的数据
+        long later = time + (16L << 16);
+        miner.setDiffSum(later, 1.0);
+        assertEquals(1.0, miner.getDiffSum(later), 0.0);
+        assertEquals(0.0, miner.getPrevDiffSum(later), 0.0);
+        assertEquals(0.0, miner.getDiffSum(time), 0.0);
+
+        // 迟到的旧时间不会清空当前窗口
+        miner.setDiffSum(time, 5.0);
+        miner.setPrevDiffSum(time, 5.0);
+        assertEquals(1.0, miner.getDiffSum(later), 0.0);
+        assertEquals(0.0, miner.getPrevDiffSum(later), 0.0);
+        assertEquals(0.0, miner.getDiffSum(time), 0.0);
+    }
+}
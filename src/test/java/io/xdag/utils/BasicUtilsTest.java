@@ -23,7 +23,10 @@
  */
 package io.xdag.utils;
 
+import static org.junit.Assert.assertEquals;
+
 import java.math.BigDecimal;
+import java.util.Random;
 
 import org.junit.Test;
 import org.spongycastle.util.encoders.Hex;
@@ -72,6 +75,36 @@ public class BasicUtilsTest {
         System.out.println(res);
     }
 
+    @Test
+    public void xdag_diff2logUInt128Test() {
+        // {hi, lo, C版本xdag_diff2log(long double)的输出}, 第一行是上面hash的难度
+        Object[][] expected = {
+                {0L, 546291555747271115L, 40.841929213021506612},
+                {0L, 1L, 0.0},
+                {0L, 1000000L, 13.815510557964274105},
+                {0L, -1L, 44.361419555836499803},
+                {1L, 0L, 44.361419555836499803},
+                {1L, -1L, 45.054566736396445114},
+                {123456789L, 987654321L, 62.992821322004517837},
+                {-1L, -1L, 88.722839111672999607},
+                {0L, 0L, 0.0}};
+        for (Object[] e : expected) {
+            UInt128 diff = new UInt128((Long) e[0], (Long) e[1]);
+            assertEquals(diff.toString(), (Double) e[2], BasicUtils.xdag_diff2log(diff), 1e-12);
+            assertEquals(diff.toString(), (Double) e[2], BasicUtils.xdag_diff2log(diff.toBigInteger()), 1e-12);
+        }
+        byte[] hash = Hex.decode("00000021c468294605ebcf8ce9462026caf42941ca82373e6ca5802d1fe339c8");
+        assertEquals(new UInt128(0, 546291555747271115L), BasicUtils.getDiffByHash128(hash));
+
+        Random random = new Random(3);
+        for (int i = 0; i < 100000; i++) {
+            UInt128 diff = new UInt128(i % 4 == 0 ? 0 : random.nextLong() >>> random.nextInt(64),
+                    random.nextLong() >>> random.nextInt(64));
+            assertEquals(Double.doubleToLongBits(BasicUtils.xdag_diff2log(diff.toBigInteger())),
+                    Double.doubleToLongBits(BasicUtils.xdag_diff2log(diff)));
+        }
+    }
+
     @Test
     public void xdag_hashrate() {
 //        BigInteger diff = BasicUtils.getDiffByHash(
@@ -0,0 +1,92 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2030 The XdagJ Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.xdag.utils;
+
+import static org.junit.Assert.assertEquals;
+
+import java.math.BigInteger;
+import java.util.Random;
+
+import org.junit.Test;
+import org.spongycastle.util.encoders.Hex;
+
+public class UInt128Test {
+
+    private static final BigInteger MAX = BigInteger.ONE.shiftLeft(128).subtract(BigInteger.ONE);
+
+    @Test
+    public void testDivide() {
+        Random random = new Random(1);
+        for (int i = 0; i < 10000; i++) {
+            UInt128 a = new UInt128(random.nextLong(), random.nextLong());
+            // 覆盖不同位数的除数
+            int bits = 1 + random.nextInt(128);
+            BigInteger d = new BigInteger(bits, random).max(BigInteger.ONE);
+            UInt128 b = fromBigInteger(d);
+            assertEquals(a.toBigInteger().divide(d), a.divide(b).toBigInteger());
+        }
+    }
+
+    @Test
+    public void testAdd() {
+        UInt128 a = new UInt128(0, -1L);
+        assertEquals(BigInteger.ONE.shiftLeft(64), a.add(new UInt128(0, 1)).toBigInteger());
+        assertEquals(MAX, UInt128.MAX_VALUE.toBigInteger());
+    }
+
+    @Test
+    public void testDoubleValue() {
+        Random random = new Random(3);
+        for (int i = 0; i < 100000; i++) {
+            UInt128 a = new UInt128(random.nextLong() >>> random.nextInt(65), random.nextLong());
+            assertEquals(Double.doubleToLongBits(a.toBigInteger().doubleValue()), Double.doubleToLongBits(a.doubleValue()));
+        }
+        // 舍入的边界
+        long[] edges = { 0, 1, -1L, Long.MIN_VALUE, Long.MAX_VALUE, 0x8000000000000400L, 0x8000000000000401L,
+                0x80000000000003ffL };
+        for (long hi : edges) {
+            for (long lo : edges) {
+                UInt128 a = new UInt128(hi, lo);
+                assertEquals(a.toBigInteger().doubleValue(), a.doubleValue(), 0.0);
+            }
+        }
+    }
+
+    @Test
+    public void testDiffByHash() {
+        Random random = new Random(2);
+        byte[] hash = Hex.decode("00000021c468294605ebcf8ce9462026caf42941ca82373e6ca5802d1fe339c8");
+        for (int i = 0; i < 1000; i++) {
+            byte[] data = new byte[16];
+            System.arraycopy(hash, 0, data, 4, 12);
+            BigInteger expected = MAX.divide(new BigInteger(1, data));
+            assertEquals(expected, BasicUtils.getDiffByHash(hash));
+            random.nextBytes(hash);
+        }
+    }
+
+    private static UInt128 fromBigInteger(BigInteger value) {
+        return new UInt128(value.shiftRight(64).longValue(), value.longValue());
+    }
+}